@@ -0,0 +1,74 @@
+package x74r45.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import x74r45.finalTask.Mandelbrot;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the scalar and the batch Mandelbrot kernels on a 64x64 grid
+ * of points taken from regions with different costs:
+ * <ul>
+ *     <li>escaping - far from the set, most points escape in a few iterations;</li>
+ *     <li>boundary - the -0.168 1.0407 0.0013 example, mixed iterations;</li>
+ *     <li>interior - inside the main cardioid, every point takes MAX_ITER.</li>
+ * </ul>
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MandelbrotBenchmark {
+    private static final int GRID = 64;
+
+    @Param({"escaping", "boundary", "interior"})
+    public String region;
+
+    private double[] reals;
+    private double[] imags;
+    private int[] out;
+
+    @Setup
+    public void setup() {
+        double real0, imag0, size;
+        switch (region) {
+            case "escaping":
+                real0 = 0.5; imag0 = 0.5; size = 1.0;
+                break;
+            case "boundary":
+                real0 = -0.168; imag0 = 1.0407; size = 0.0013;
+                break;
+            case "interior":
+                real0 = -0.4; imag0 = -0.2; size = 0.4;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown region: " + region);
+        }
+
+        double step = size / GRID;
+        reals = new double[GRID * GRID];
+        imags = new double[GRID * GRID];
+        out = new int[GRID * GRID];
+        for (int i = 0; i < reals.length; i++) {
+            reals[i] = real0 + step * (i % GRID);
+            imags[i] = imag0 + step * (i / GRID);
+        }
+    }
+
+    @Benchmark
+    public int[] scalar() {
+        for (int i = 0; i < reals.length; i++) out[i] = Mandelbrot.iterations(reals[i], imags[i]);
+        return out;
+    }
+
+    @Benchmark
+    public int[] batch() {
+        Mandelbrot.iterations(reals, imags, reals.length, out, 0);
+        return out;
+    }
+}
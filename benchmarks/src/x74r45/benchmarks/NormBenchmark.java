@@ -0,0 +1,40 @@
+package x74r45.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import x74r45.Practical5_1;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the sum of squares that every processor of Practical5_1
+ * calculates for its chunk of the matrix.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NormBenchmark {
+
+    @Param({"1000", "100000", "10000000"})
+    public int chunkSize;
+
+    private int[] chunk;
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(74);
+        chunk = new int[chunkSize];
+        for (int i = 0; i < chunk.length; i++) chunk[i] = rand.nextInt(1000);
+    }
+
+    @Benchmark
+    public long sumOfSquares() {
+        return Practical5_1.sumOfSquares(chunk);
+    }
+}
@@ -0,0 +1,60 @@
+package x74r45.benchmarks;
+
+import com.mathpar.matrix.MatrixS;
+import com.mathpar.number.NumberZp32;
+import com.mathpar.number.Ring;
+import org.openjdk.jmh.annotations.*;
+import x74r45.Practical5_2;
+import x74r45.multiplication.WinogradStrassen;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the sequential Strassen multiplication of Practical5_2 on
+ * the same kind of matrices that Practical5_2 generates, with the recursion
+ * going down to single elements (cutoff 0) and switching to the dense kernel,
+ * and the Winograd variant, whose allocations the GC profiler compares with it.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StrassenBenchmark {
+
+    @Param({"16", "64", "128"})
+    public int ord;
+
+    @Param({"0", "64"})
+    public int cutoff;
+
+    private Ring ring;
+    private MatrixS a;
+    private MatrixS b;
+    private WinogradStrassen winograd;
+
+    @Setup
+    public void setup() {
+        ring = new Ring("R64[x]");
+        ring.setMOD32(13);
+        Random rnd = new Random(74);
+        a = new MatrixS(ord, ord, 10000, new int[]{5, 5}, rnd, NumberZp32.ONE, ring);
+        b = new MatrixS(ord, ord, 10000, new int[]{5, 5}, rnd, NumberZp32.ONE, ring);
+        winograd = new WinogradStrassen(cutoff);
+    }
+
+    @Benchmark
+    public MatrixS multiplySeq() {
+        return Practical5_2.multiplySeq(a, b, cutoff, ring);
+    }
+
+    @Benchmark
+    public MatrixS winograd() {
+        return winograd.multiply(a, b);
+    }
+}
@@ -2,6 +2,7 @@ package x74r45;
 
 import mpi.MPI;
 import mpi.MPIException;
+import x74r45.scaling.PhaseTimer;
 
 import java.nio.IntBuffer;
 
@@ -10,7 +11,8 @@ import java.nio.IntBuffer;
  * processors in form of a chain: 0 -> 1 -> ... -> np-1 -> 0
  *
  * The number is being changed depending on whether processor's
- * rank is even.
+ * rank is even. Passing the number along the chain is timed as its
+ * distribution, changing it as the computation.
  *
  * @author Taras Kreshchenko
  * @version 1.0
@@ -21,28 +23,39 @@ public class Practical3 {
 
         int rank = MPI.COMM_WORLD.getRank();
         int np = MPI.COMM_WORLD.getSize();
+        PhaseTimer timer = new PhaseTimer();
         MPI.COMM_WORLD.barrier();
 
         if (rank == 0) {
+            timer.start(PhaseTimer.GENERATION);
             IntBuffer buf = MPI.newIntBuffer(1);
             buf.put(0, Integer.parseInt(args[0]));
             int receiver = (np > 1) ? 1 : 0;
+            timer.start(PhaseTimer.DISTRIBUTION);
             MPI.COMM_WORLD.iSend(buf, 1, MPI.INT, receiver, 74);
+            timer.addBytes(PhaseTimer.DISTRIBUTION, 4);
 
             IntBuffer out = MPI.newIntBuffer(1);
             MPI.COMM_WORLD.recv(out, 1, MPI.INT, np-1, 74);
+            timer.start(PhaseTimer.OUTPUT);
             System.out.println("Final number: " + out.get(0));
         } else {
+            timer.start(PhaseTimer.DISTRIBUTION);
             IntBuffer num = MPI.newIntBuffer(1);
             MPI.COMM_WORLD.recv(num, 1, MPI.INT, rank-1, 74);
 
+            timer.start(PhaseTimer.COMPUTE);
             int prev = num.get(0);
             int next = (rank % 2 == 0) ? prev + rank : prev + rank * 10;
             num.put(0, next);
 
+            timer.start(PhaseTimer.DISTRIBUTION);
             int receiver = (rank + 1) % np;
             MPI.COMM_WORLD.send(num, 1, MPI.INT, receiver, 74);
+            timer.addBytes(PhaseTimer.DISTRIBUTION, 4);
         }
+        // The size of the problem is the length of the chain
+        timer.report("Practical3", np);
         MPI.Finalize();
     }
 }
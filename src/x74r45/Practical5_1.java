@@ -2,23 +2,41 @@ package x74r45;
 
 import mpi.MPI;
 import mpi.MPIException;
+import x74r45.norm.NormStatistics;
+import x74r45.scaling.PhaseTimer;
 
 import java.util.Arrays;
+import java.util.Locale;
 import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.stream.IntStream;
 
 /**
- * Calculates matrix's norm in parallel.
+ * Calculates matrix's norms in parallel: the Frobenius norm, the 1-norm (the
+ * largest sum of a column), the infinity-norm (the largest sum of a row) and
+ * the max-norm, all in one pass over the chunk (see {@link NormStatistics}).
+ * The matrix is either generated on the root and scattered, or every
+ * processor generates only its own part of it. Both ways give the same
+ * matrix for the same seed and any amount of processors: the elements are
+ * taken from blocks of {@link #BLOCK} numbers of SplittableRandom, and the
+ * generator of a block starts where the stream of the seed would be after
+ * all the previous blocks, so a processor can start at any element.
+ * The norm of a matrix kept in a file is calculated by {@link x74r45.norm.MappedNorm}.
  *
  * @author Taras Kreshchenko
  * @version 1.0
  */
 public class Practical5_1 {
+    /** The amount of elements generated from one SplittableRandom. */
+    public static final int BLOCK = 1024;
+    // The step of the state of SplittableRandom, see its source
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
 
     /**
      * Runs the calculations and prints the result in the console.
      *
-     * @param args           Contains one element - the size of the matrix.
+     * @param args           The size of the matrix, optionally followed by the way to
+     *                       generate it: "root" (default) or "local", and by the seed.
      * @throws MPIException  If an error occurred during MPI communications.
      */
     public static void main(String[] args) throws MPIException {
@@ -28,56 +46,111 @@ public class Practical5_1 {
         int rank = MPI.COMM_WORLD.getRank();
         int np = MPI.COMM_WORLD.getSize();
         int ord = Integer.parseInt(args[0]);
+        boolean local = (args.length > 1) && args[1].equals("local");
+        if (args.length > 1 && !local && !args[1].equals("root"))
+            throw new IllegalArgumentException("Unknown way to generate the matrix: " + args[1]);
+        PhaseTimer timer = new PhaseTimer();
 
-        /*
-         * I decided to represent matrix as a 1D array because this way
-         * sending and receiving data would be the easiest and most efficient
-         * (both time- and memory-wise).
-         */
-        int[] matrix = new int[ord * ord];
-        if (rank == 0) {
-            // Filling the matrix with random numbers
-            Random rand = new Random();
-            for (int i = 0; i < matrix.length; i++)
-                matrix[i] = rand.nextInt(1000);
-
-            System.out.println("Starting matrix: ");
-            for (int y = 0; y < ord; y++) printPartOfArray(matrix, y * ord, (y+1) * ord);
-            System.out.println();
-        }
+        // Every processor needs the same seed
+        long[] seed = {(args.length > 2) ? Long.parseLong(args[2]) : new Random().nextLong()};
+        if (args.length <= 2) MPI.COMM_WORLD.bcast(seed, 1, MPI.LONG, 0);
 
         // Calculating displacements
-        float elemsPerProcessor = ((float) matrix.length) / np;
+        int total = ord * ord;
+        float elemsPerProcessor = ((float) total) / np;
         int[] displs = IntStream.range(0, np).map(x -> Math.round(x * elemsPerProcessor)).toArray();
         int[] sendcount = IntStream.range(0, np)
-                .map(x -> (x == np-1) ? matrix.length - displs[x] : displs[x + 1] - displs[x])
+                .map(x -> (x == np-1) ? total - displs[x] : displs[x + 1] - displs[x])
                 .toArray();
 
-        // Scattering equal (max diff = 1) parts of the matrix across all processors
+        /*
+         * I decided to represent matrix as a 1D array because this way
+         * sending and receiving data would be the easiest and most efficient
+         * (both time- and memory-wise).
+         */
         int[] chunk = new int[sendcount[rank]];
-        MPI.COMM_WORLD.barrier();
-        MPI.COMM_WORLD.scatterv(matrix, sendcount, displs, MPI.INT,
-                chunk, sendcount[rank], MPI.INT, 0);
+        timer.start(PhaseTimer.GENERATION);
+        if (local) {
+            // Every processor fills only its part, so the whole matrix is never kept anywhere
+            generate(chunk, displs[rank], seed[0]);
+        } else {
+            // Only the root keeps the whole matrix, the other processors don't need it for scatterv
+            int[] matrix = new int[(rank == 0) ? total : 0];
+            if (rank == 0) {
+                generate(matrix, 0, seed[0]);
+
+                timer.start(PhaseTimer.OUTPUT);
+                System.out.println("Starting matrix: ");
+                for (int y = 0; y < ord; y++) printPartOfArray(matrix, y * ord, (y+1) * ord);
+                System.out.println();
+            }
+            timer.stop();
+
+            // Scattering equal (max diff = 1) parts of the matrix across all processors
+            MPI.COMM_WORLD.barrier();
+            timer.start(PhaseTimer.DISTRIBUTION);
+            MPI.COMM_WORLD.scatterv(matrix, sendcount, displs, MPI.INT,
+                    chunk, sendcount[rank], MPI.INT, 0);
+            if (rank == 0) timer.addBytes(PhaseTimer.DISTRIBUTION, 4L * (total - sendcount[0]));
+        }
+        timer.start(PhaseTimer.OUTPUT);
         System.out.print("rank = " + rank + "; chunk = " + Arrays.toString(chunk) + '\n');
 
-        // Calculating sum of squared elements
-        int myRes = Arrays.stream(chunk).map(x -> x * x).reduce(0, Integer::sum);
-        System.out.print("rank = " + rank + "; myRes = " + myRes + '\n');
+        // Calculating sum of squared elements, the largest element and the sums of rows and columns
+        timer.start(PhaseTimer.COMPUTE);
+        NormStatistics statistics = new NormStatistics(ord, ord);
+        statistics.add(chunk, displs[rank]);
+        timer.start(PhaseTimer.OUTPUT);
+        System.out.printf(Locale.ROOT, "rank = %d; myRes = %.0f%n", rank, statistics.getSumOfSquares());
 
-        // Sending the sum of results of all processors to the root
-        int[] reduced = new int[1];
-        MPI.COMM_WORLD.reduce(new int[]{myRes}, reduced, 1, MPI.INT, MPI.SUM, 0);
+        // Combining the results of all processors on the root
+        timer.start(PhaseTimer.COLLECTION);
+        double[] norms = statistics.reduce(MPI.COMM_WORLD, 0);
+        timer.addBytes(PhaseTimer.COLLECTION, Double.BYTES * (2L * ord + ((rank != 0) ? NormStatistics.RECORD : 0)));
 
+        timer.start(PhaseTimer.OUTPUT);
         if (rank == 0) {
-            // Final step to calculate the norm
-            double norm = Math.sqrt(reduced[0]);
-            System.out.println("Reduced: " + reduced[0]);
-            System.out.println("Matrix's norm is: " + norm);
+            System.out.printf(Locale.ROOT, "Reduced: %.0f%n", norms[4]);
+            System.out.println("Matrix's norm is: " + norms[0]);
+            System.out.println("1-norm: " + norms[1]);
+            System.out.println("Infinity-norm: " + norms[2]);
+            System.out.println("Max-norm: " + norms[3]);
         }
 
+        timer.report("Practical5_1", ord);
         MPI.Finalize();
     }
 
+    /**
+     * Fills a part of the matrix with random numbers from 0 to 999.
+     *
+     * @param part    The part of the matrix.
+     * @param offset  The index of the first element of the part in the matrix.
+     * @param seed    The seed of the matrix.
+     */
+    public static void generate(int[] part, long offset, long seed) {
+        int i = 0;
+        while (i < part.length) {
+            long block = (offset + i) / BLOCK;
+            // The state of a SplittableRandom grows by GOLDEN_GAMMA with every number
+            SplittableRandom rand = new SplittableRandom(seed + block * BLOCK * GOLDEN_GAMMA);
+            int first = (int) (offset + i - block * BLOCK);
+            int count = Math.min(BLOCK - first, part.length - i);
+            for (int j = 0; j < first; j++) rand.nextInt(1000);
+            for (int j = 0; j < count; j++) part[i++] = rand.nextInt(1000);
+        }
+    }
+
+    /**
+     * Calculates the sum of squared elements of a part of the matrix.
+     *
+     * @param chunk  The part of the matrix.
+     * @return       The sum of squares.
+     */
+    public static long sumOfSquares(int[] chunk) {
+        return Arrays.stream(chunk).mapToLong(x -> (long) x * x).sum();
+    }
+
     // A helper function I used to print the 1D matrix prettier than just an array
     private static void printPartOfArray(int[] arr, int start, int end) {
         System.out.print('[');
@@ -1,132 +1,206 @@
 package x74r45;
 
 import com.mathpar.matrix.MatrixS;
-import com.mathpar.number.NumberZp32;
+import com.mathpar.number.Element;
 import com.mathpar.number.Ring;
-import com.mathpar.parallel.utils.MPITransport;
 import mpi.MPI;
 import mpi.MPIException;
+import x74r45.multiplication.DenseKernel;
+import x74r45.multiplication.DistributedStrassen;
+import x74r45.multiplication.MatrixBlocks;
+import x74r45.multiplication.ModularKernel;
+import x74r45.multiplication.OperandGenerator;
+import x74r45.multiplication.ParallelStrassen;
+import x74r45.multiplication.ResultChecker;
+import x74r45.scaling.PhaseTimer;
 
-import java.io.IOException;
-import java.util.Arrays;
 import java.util.Random;
 
 /**
  * Implements Strassen's algorithm of multiplying matrices in parallel.
  * Uses mathpar's implementation of Matrices, which you can find <a href="https://bitbucket.org/mathpar/dap">here</a>.
+ * Can be run with any amount of processors, the products are spread over them
+ * by {@link DistributedStrassen}. The matrices are made by {@link OperandGenerator}
+ * and the product is checked by {@link ResultChecker}, like in {@link x74r45.multiplication.Summa}.
  *
  * @author Taras Kreshchenko
  * @version 1.0
  */
 public class Practical5_2 {
     static boolean debug_mode = true; // enables printing of matrices, should be used with matrices that aren't too large.
+    public static final int DEFAULT_CUTOFF = 64; // matrices of this size or smaller are multiplied by the dense kernel
+
+    // The sign of every helping matrix in every quadrant of the product
+    private static final int[][] SIGNS = {
+            {1, 0, 0, 1, -1, 0, 1},
+            {0, 0, 1, 0, 1, 0, 0},
+            {0, 1, 0, 1, 0, 0, 0},
+            {1, -1, 1, 0, 0, 1, 0}
+    };
 
     /**
      * Runs the calculations and prints the results in the console.
      *
-     * @param args                     Contains one element - the size of the matrix.
-     * @throws MPIException            If an error occurred during MPI communications.
-     * @throws IOException             If MPITransport threw this exception.
-     * @throws ClassNotFoundException  If MPITransport threw this exception.
+     * @param args           The size of the matrices: n for two n x n matrices or m x k x n
+     *                       for an m x k and a k x n matrix, and optionally the cutoff of the recursion
+     *                       (a size or "auto" to measure it on the root and broadcast it), the amount
+     *                       of threads of every processor (0 for all cores), the amount
+     *                       of recursion levels they split, "blocking" to send and
+     *                       receive the matrices without overlapping and a prime p
+     *                       to multiply over Z_p with {@link ModularKernel}.
+     * @throws MPIException  If an error occurred during MPI communications.
      */
-    public static void main(String[] args) throws MPIException, IOException, ClassNotFoundException {
-        MPI.Init(args);
+    public static void main(String[] args) throws MPIException {
+        int threads = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+        int depth = (args.length > 3) ? Integer.parseInt(args[3]) : 2;
+        boolean overlap = args.length <= 4 || !args[4].equals("blocking");
+        // Only the main thread makes MPI calls, so the extra threads need THREAD_FUNNELED
+        int provided = MPI.THREAD_SINGLE;
+        if (threads == 1) MPI.Init(args);
+        else provided = MPI.InitThread(args, MPI.THREAD_FUNNELED);
 
         // Initial data
-        Ring ring = new Ring("R64[x]");
+        Ring ring = new Ring((args.length > 5) ? "Zp32[x]" : "R64[x]");
         int rank = MPI.COMM_WORLD.getRank();
-        if (MPI.COMM_WORLD.getSize() < 7) throw new IllegalStateException("Number of processors is less than 7.");
-        int ord = Integer.parseInt(args[0]);
-        int mod = 13;
+        if (rank == 0 && provided < MPI.THREAD_FUNNELED && threads != 1)
+            System.out.print("Warning: MPI doesn't provide THREAD_FUNNELED support.\n");
+        String[] sizes = args[0].split("x");
+        int m = Integer.parseInt(sizes[0]);
+        int k = (sizes.length == 3) ? Integer.parseInt(sizes[1]) : m;
+        int n = (sizes.length == 3) ? Integer.parseInt(sizes[2]) : m;
+        int mod = (args.length > 5) ? Integer.parseInt(args[5]) : 13;
         ring.setMOD32(mod);
+        int cutoff = DEFAULT_CUTOFF;
+        if (args.length > 1 && args[1].equals("auto")) {
+            // Tuning on the root only, so that every processor uses the cutoff it reports
+            int[] tuned = new int[1];
+            if (rank == 0) tuned[0] = DenseKernel.tuneCutoff(Math.max(Math.max(m, k), Math.max(n, 64)), ring);
+            MPI.COMM_WORLD.bcast(tuned, 1, MPI.INT, 0);
+            cutoff = tuned[0];
+        } else if (args.length > 1) cutoff = Integer.parseInt(args[1]);
+        if (rank == 0) System.out.print("Cutoff: " + cutoff + '\n');
 
+        MatrixS A = null, B = null;
+        OperandGenerator generator = new OperandGenerator(new Random().nextLong(), 10000);
+        PhaseTimer timer = new PhaseTimer();
         if (rank == 0) {
             // Filling the initial matrices
-            Random rnd = new Random();
-            MatrixS A = new MatrixS(ord, ord, 10000, new int[]{5, 5}, rnd, NumberZp32.ONE, ring);
-            MatrixS B = new MatrixS(ord, ord, 10000, new int[]{5, 5}, rnd, NumberZp32.ONE, ring);
+            timer.start(PhaseTimer.GENERATION);
+            A = generator.matrix(OperandGenerator.A, m, k, ring);
+            B = generator.matrix(OperandGenerator.B, k, n, ring);
+            timer.start(PhaseTimer.OUTPUT);
             if (debug_mode) {
                 System.out.print("Matrix A:" + A.toString() + '\n');
                 System.out.print("Matrix B:" + B.toString() + "\n\n");
             }
+            timer.stop();
+        }
 
-            MatrixS[] CC = new MatrixS[4];
-            MatrixS[] MM = new MatrixS[7];
-            // Splitting the matrices
-            MatrixS[] AA = A.split();
-            MatrixS[] BB = B.split();
-            // Sending parts of matrices to other processors
-            MPITransport.sendObjectArray(new Object[]{AA[0].add(AA[3], ring), BB[0].add(BB[3], ring)},0, 2, 1, 1);
-            MPITransport.sendObjectArray(new Object[]{AA[2].add(AA[3], ring), BB[0]}, 0, 2, 2, 2);
-            MPITransport.sendObjectArray(new Object[]{AA[0], BB[1].subtract(BB[3], ring)}, 0, 2, 3, 3);
-            MPITransport.sendObjectArray(new Object[]{AA[3], BB[2].subtract(BB[0], ring)}, 0, 2, 4, 4);
-            MPITransport.sendObjectArray(new Object[]{AA[0].add(AA[1], ring), BB[3]}, 0, 2, 5, 5);
-            MPITransport.sendObjectArray(new Object[]{AA[2].subtract(AA[0], ring), BB[0].add(BB[1], ring)}, 0, 2, 6, 6);
-
-            // Calculating processor 0's part
-            MM[6] = multiplySeq(AA[1].subtract(AA[3], ring), BB[2].add(BB[3], ring), ring);
-
-            // Receiving other parts from other processors
-            MM[0] = (MatrixS) MPITransport.recvObject(1, 1);
-            MM[1] = (MatrixS) MPITransport.recvObject(2, 2);
-            MM[2] = (MatrixS) MPITransport.recvObject(3, 3);
-            MM[3] = (MatrixS) MPITransport.recvObject(4, 4);
-            MM[4] = (MatrixS) MPITransport.recvObject(5, 5);
-            MM[5] = (MatrixS) MPITransport.recvObject(6, 6);
-            if (debug_mode) {
-                System.out.print("\nReceived matrices:");
-                Arrays.stream(MM).forEach(System.out::print);
-                System.out.println();
-            }
-
-            // Combining the results
-            CC[0] = MM[0].add(MM[3], ring).subtract(MM[4], ring).add(MM[6], ring);
-            CC[1] = MM[2].add(MM[4], ring);
-            CC[2] = MM[1].add(MM[3], ring);
-            CC[3] = MM[0].subtract(MM[1], ring).add(MM[2], ring).add(MM[5], ring);
-            MatrixS C = MatrixS.join(CC);
-            if (debug_mode) System.out.print("\nResult:" + C.toString() + '\n');
-        } else {
-            // Receiving matrices
-            Object[] n = new Object[2];
-            MPITransport.recvObjectArray(n, 0, 2, 0, rank);
-            if (debug_mode) System.out.print("rank = " + rank + "; received matrices:" + n[0] + n[1] + '\n');
-
-            // Multiplying them
-            MatrixS res = multiplySeq((MatrixS) n[0], (MatrixS) n[1], ring);
-
-            // Sending the result
-            if (debug_mode) System.out.print("rank = " + rank + "; res = " + res + '\n');
-            MPITransport.sendObject(res, 0, rank);
+        // Spreading the products over all processors and combining them on the root
+        ParallelStrassen local = new ParallelStrassen(threads, depth, cutoff, ring);
+        DistributedStrassen strassen = new DistributedStrassen(ring, local, overlap);
+        double start = MPI.wtime();
+        MatrixS C = strassen.multiply(A, B);
+        double time = MPI.wtime() - start;
+        local.shutdown();
+        long[] bytes = strassen.getBytesSent();
+        timer.addBytes(PhaseTimer.DISTRIBUTION, bytes[0]);
+        timer.addBytes(PhaseTimer.COLLECTION, bytes[1]);
+        if (rank == 0) {
+            // The phases of the root's critical path, everything else it did was computing
+            double[] times = strassen.getTimes();
+            timer.addTime(PhaseTimer.DISTRIBUTION, times[0]);
+            timer.addTime(PhaseTimer.COLLECTION, times[2] + times[3]);
+            timer.addTime(PhaseTimer.COMPUTE, time - times[0] - times[2] - times[3]);
+            System.out.printf("Critical path (%s): sending = %.4fs, own products = %.4fs, waiting = %.4fs, "
+                    + "combining = %.4fs, total = %.4fs%n", overlap ? "overlapped" : "blocking",
+                    times[0], times[1], times[2], times[3], time);
+            System.out.print("Check: " + (ResultChecker.check(generator, C, k, ring) ? "correct" : "WRONG") + '\n');
         }
+        timer.start(PhaseTimer.OUTPUT);
+        if (rank == 0 && debug_mode) System.out.print("\nResult:" + C.toString() + '\n');
+        timer.report("Practical5_2", Math.max(m, Math.max(k, n)));
         MPI.Finalize();
     }
 
-    // Sequential multiplication (using Strassen's algorithm)
-    public static MatrixS multiplySeq(MatrixS A, MatrixS B, Ring ring) {
-        if (A.size != B.size) throw new IllegalArgumentException("Matrices have different sizes.");
-        if (A.size == 1) return A.multiply(B, ring);
+    // Sequential multiplication (using Strassen's algorithm down to the cutoff), A is m x k and B is k x n
+    public static MatrixS multiplySeq(MatrixS A, MatrixS B, int cutoff, Ring ring) {
+        if (A.colNumb != B.size) throw new IllegalArgumentException("Matrices have incompatible sizes.");
+        // Single rows and columns can't be split, they are multiplied directly
+        if (Math.max(A.size, Math.max(A.colNumb, B.colNumb)) <= cutoff
+                || Math.min(A.size, Math.min(A.colNumb, B.colNumb)) == 1) return DenseKernel.multiply(A, B, ring);
+        // Peeling the odd row and column
+        if (A.size % 2 != 0 || A.colNumb % 2 != 0 || B.colNumb % 2 != 0)
+            return MatrixBlocks.completePeeled(A, B, multiplySeq(MatrixBlocks.evenPart(A), MatrixBlocks.evenPart(B), cutoff, ring), ring);
 
-        MatrixS[] AA = A.split();
-        MatrixS[] BB = B.split();
-        MatrixS[] CC = new MatrixS[4];
+        MatrixS[] AA = MatrixBlocks.split(A);
+        MatrixS[] BB = MatrixBlocks.split(B);
         MatrixS[] MM = new MatrixS[7];
 
         // Building helping matrices
-        MM[0] = multiplySeq(AA[0].add(AA[3], ring), BB[0].add(BB[3], ring), ring);
-        MM[1] = multiplySeq(AA[2].add(AA[3], ring), BB[0], ring);
-        MM[2] = multiplySeq(AA[0], BB[1].subtract(BB[3], ring), ring);
-        MM[3] = multiplySeq(AA[3], BB[2].subtract(BB[0], ring), ring);
-        MM[4] = multiplySeq(AA[0].add(AA[1], ring), BB[3], ring);
-        MM[5] = multiplySeq(AA[2].subtract(AA[0], ring), BB[0].add(BB[1], ring), ring);
-        MM[6] = multiplySeq(AA[1].subtract(AA[3], ring), BB[2].add(BB[3], ring), ring);
+        for (int k = 0; k < 7; k++) {
+            MatrixS[] operands = operands(k, AA, BB, ring);
+            MM[k] = multiplySeq(operands[0], operands[1], cutoff, ring);
+        }
 
         // Combining them and returning the result
-        CC[0] = MM[0].add(MM[3], ring).subtract(MM[4], ring).add(MM[6], ring);
-        CC[1] = MM[2].add(MM[4], ring);
-        CC[2] = MM[1].add(MM[3], ring);
-        CC[3] = MM[0].subtract(MM[1], ring).add(MM[2], ring).add(MM[5], ring);
-        return MatrixS.join(CC);
+        return combine(MM, ring);
+    }
+
+    /**
+     * Builds the pair of matrices whose product is the k-th helping matrix of Strassen's algorithm.
+     *
+     * @param k     The number of the helping matrix, from 0 to 6.
+     * @param AA    The quadrants of the first matrix.
+     * @param BB    The quadrants of the second matrix.
+     * @param ring  The ring of the matrices.
+     * @return      The two matrices to multiply.
+     */
+    public static MatrixS[] operands(int k, MatrixS[] AA, MatrixS[] BB, Ring ring) {
+        switch (k) {
+            case 0: return new MatrixS[]{AA[0].add(AA[3], ring), BB[0].add(BB[3], ring)};
+            case 1: return new MatrixS[]{AA[2].add(AA[3], ring), BB[0]};
+            case 2: return new MatrixS[]{AA[0], BB[1].subtract(BB[3], ring)};
+            case 3: return new MatrixS[]{AA[3], BB[2].subtract(BB[0], ring)};
+            case 4: return new MatrixS[]{AA[0].add(AA[1], ring), BB[3]};
+            case 5: return new MatrixS[]{AA[2].subtract(AA[0], ring), BB[0].add(BB[1], ring)};
+            case 6: return new MatrixS[]{AA[1].subtract(AA[3], ring), BB[2].add(BB[3], ring)};
+            default: throw new IllegalArgumentException("There are only 7 helping matrices.");
+        }
+    }
+
+    /**
+     * Combines the seven helping matrices of Strassen's algorithm into the product.
+     *
+     * @param MM    The helping matrices.
+     * @param ring  The ring of the matrices.
+     * @return      The product.
+     */
+    public static MatrixS combine(MatrixS[] MM, Ring ring) {
+        MatrixS[] CC = new MatrixS[4];
+        for (int k = 0; k < 7; k++) accumulate(CC, k, MM[k], ring);
+        return MatrixBlocks.join(CC);
+    }
+
+    /**
+     * Adds a helping matrix of Strassen's algorithm to the quadrants of the product
+     * it is part of, so that the helping matrices can be added in any order.
+     *
+     * @param CC    The quadrants of the product, null until something is added to them.
+     * @param k     The number of the helping matrix, from 0 to 6.
+     * @param M     The helping matrix.
+     * @param ring  The ring of the matrices.
+     */
+    public static void accumulate(MatrixS[] CC, int k, MatrixS M, Ring ring) {
+        for (int q = 0; q < 4; q++) {
+            if (SIGNS[q][k] == 0) continue;
+            if (CC[q] == null && SIGNS[q][k] > 0) CC[q] = M;
+            else {
+                // A quadrant that starts with a subtraction starts from zero
+                if (CC[q] == null) CC[q] = new MatrixS(M.size, M.colNumb, new Element[M.size][0], new int[M.size][0]);
+                CC[q] = (SIGNS[q][k] > 0) ? CC[q].add(M, ring) : CC[q].subtract(M, ring);
+            }
+        }
     }
 }
 
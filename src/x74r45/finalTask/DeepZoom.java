@@ -0,0 +1,132 @@
+package x74r45.finalTask;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Computes Mandelbrot iterations for views too small for double precision
+ * using perturbation theory. The orbit of the center of the view (the reference)
+ * is computed once with BigDecimal, and every pixel only iterates its difference
+ * from the reference in double precision:
+ * <pre>
+ *     d(n+1) = 2 * Z(n) * d(n) + d(n)^2 + dc
+ * </pre>
+ * where Z(n) is the reference orbit and dc is the pixel's offset from the center.
+ * When the pixel's orbit gets closer to 0 than to the reference (the place where
+ * the approximation breaks and the image glitches), or the reference orbit ends,
+ * the pixel is rebased: its current value becomes the new difference from the
+ * start of the reference orbit.
+ * The offsets are plain doubles, so views down to about 1e-300 are supported.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class DeepZoom {
+    private final double[] orbitReal;
+    private final double[] orbitImag;
+    private final int orbitLength;
+    private final double step;
+    private final int width;
+
+    // Statistics for the report
+    private long rebases;
+
+    /**
+     * @param orbit        The reference orbit as returned by {@link #referenceOrbit}.
+     * @param orbitLength  The amount of points in the orbit.
+     * @param step         The distance between two neighbouring pixels.
+     * @param width        The amount of pixels in a row, the reference is in its middle.
+     */
+    public DeepZoom(double[] orbit, int orbitLength, double step, int width) {
+        this.orbitReal = new double[orbitLength];
+        this.orbitImag = new double[orbitLength];
+        for (int n = 0; n < orbitLength; n++) {
+            orbitReal[n] = orbit[2*n];
+            orbitImag[n] = orbit[2*n + 1];
+        }
+        this.orbitLength = orbitLength;
+        this.step = step;
+        this.width = width;
+    }
+
+    /**
+     * Computes the orbit of the reference point with enough precision for the view.
+     * The orbit stops at MAX_ITER or at the first point that escapes.
+     *
+     * @param real       The real value of the reference point.
+     * @param imag       The imaginary value of the reference point.
+     * @param precision  The amount of significant digits to compute with.
+     * @return           The points of the orbit as {real0, imag0, real1, imag1, ...},
+     *                   the array has room for MAX_ITER + 1 points.
+     */
+    public static double[] referenceOrbit(BigDecimal real, BigDecimal imag, int precision) {
+        MathContext mc = new MathContext(precision);
+        double[] orbit = new double[2 * (Mandelbrot.MAX_ITER + 1)];
+        BigDecimal x = BigDecimal.ZERO, y = BigDecimal.ZERO;
+        for (int n = 1; n <= Mandelbrot.MAX_ITER; n++) {
+            BigDecimal x2 = x.multiply(x, mc);
+            BigDecimal y2 = y.multiply(y, mc);
+            y = x.multiply(y, mc).multiply(BigDecimal.valueOf(2)).add(imag, mc);
+            x = x2.subtract(y2).add(real, mc);
+            orbit[2*n] = x.doubleValue();
+            orbit[2*n + 1] = y.doubleValue();
+            if (orbit[2*n] * orbit[2*n] + orbit[2*n + 1] * orbit[2*n + 1] > 4) break;
+        }
+        return orbit;
+    }
+
+    /**
+     * Returns the amount of points in an orbit computed by {@link #referenceOrbit}.
+     */
+    public static int orbitLength(double[] orbit) {
+        int length = 1;
+        while (length <= Mandelbrot.MAX_ITER) {
+            double x = orbit[2*length], y = orbit[2*length + 1];
+            length++;
+            if (x * x + y * y > 4) break;
+        }
+        return length;
+    }
+
+    /**
+     * Computes the iterations for the pixels with indices from (inclusive)
+     * to (exclusive), numbered row by row starting from the bottom left corner.
+     */
+    public void computeRange(long from, long to, int[] out, int offset) {
+        double center = width / 2.0;
+        for (long i = from; i < to; i++)
+            out[offset++] = iterations(step * (i % width - center), step * (i / width - center));
+    }
+
+    /**
+     * Computes the iterations for the point that is (dcReal, dcImag) away from the reference.
+     */
+    public int iterations(double dcReal, double dcImag) {
+        double dx = 0, dy = 0;
+        int m = 0;
+        int iter = 0;
+        while (iter < Mandelbrot.MAX_ITER) {
+            double zr = orbitReal[m], zi = orbitImag[m];
+            double nextDx = 2 * (zr * dx - zi * dy) + (dx * dx - dy * dy) + dcReal;
+            dy = 2 * (zr * dy + zi * dx) + 2 * dx * dy + dcImag;
+            dx = nextDx;
+            m++;
+            iter++;
+
+            double x = orbitReal[m] + dx, y = orbitImag[m] + dy;
+            double z2 = x * x + y * y;
+            if (z2 > 4) break;
+            if (z2 < dx * dx + dy * dy || m == orbitLength - 1) {
+                dx = x;
+                dy = y;
+                m = 0;
+                rebases++;
+            }
+        }
+        return iter;
+    }
+
+    public long getRebases() {
+        return rebases;
+    }
+}
@@ -3,10 +3,13 @@ package x74r45.finalTask;
 import mpi.DoubleComplex;
 import mpi.MPI;
 import mpi.MPIException;
+import x74r45.scaling.PhaseTimer;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.nio.ByteBuffer;
 import java.nio.DoubleBuffer;
 import java.util.Arrays;
@@ -23,18 +26,72 @@ import java.util.stream.IntStream;
  *     <li>imag0 - The imaginary value of the bottom left coordinate.</li>
  *     <li>size  - The size of the fragment of the Mandelbrot set to render.</li>
  * </ul>
+ * Optional settings can follow the coordinates as key=value pairs:
+ * <ul>
+ *     <li>mode     - "static" (default) scatters equal parts of the image,
+ *                    "dynamic" hands out tiles on demand (see {@link TileScheduler}),
+ *                    "local" splits the image like "static", but every processor
+ *                    derives the coordinates of its pixels by itself,
+ *                    "mariani" hands out tiles like "dynamic" and computes them
+ *                    with {@link MarianiSilver} subdivision,
+ *                    "headless" writes the image to a file instead of showing it,
+ *                    each processor colours and writes its own bands of rows
+ *                    (see {@link ImageWriter}),
+ *                    "zoom" renders frames zooming into the target view and writes
+ *                    them to files (see {@link ZoomAnimation}),
+ *                    "deep" splits the image like "local", but computes the pixels as
+ *                    perturbations of one precise orbit, for views smaller than about
+ *                    1e-13 where double precision breaks down (see {@link DeepZoom}),
+ *                    "cached" hands out tiles like "dynamic", but takes the tiles that were
+ *                    computed before from a {@link TileCache} of the root, and only the
+ *                    others are handed out. The view is moved by less than a pixel so
+ *                    that its tiles line up with the tiles of other views.
+ *                    With "pan" several views are rendered one after another with the same
+ *                    cache, like panning in a viewer, and the last one is shown.</li>
+ *     <li>imageSize - The width and height of the image in pixels.</li>
+ *     <li>tileSize - The side of a square tile in pixels for the "dynamic" and "mariani" modes.</li>
+ *     <li>threads  - The amount of threads each processor uses in the "local" and
+ *                    "dynamic" modes, 0 for all available cores (see {@link ParallelMandelbrot}).
+ *                    Running one processor per node with many threads is the hybrid mode.</li>
+ *     <li>output   - The file to write the image to in the "headless" mode.</li>
+ *     <li>format   - The format of the output file: "ppm" (default) or "raw".</li>
+ *     <li>bandRows - The amount of rows a processor computes and writes at once
+ *                    in the "headless" mode.</li>
+ *     <li>target   - The last view of the "zoom" mode: real0,imag0,size.</li>
+ *     <li>frames   - The amount of frames in the "zoom" mode.</li>
+ *     <li>cacheTiles - The amount of tiles the "cached" mode keeps in memory.</li>
+ *     <li>cacheDir - The directory where the "cached" mode keeps the tiles between runs,
+ *                    if not set the tiles are only kept in memory.</li>
+ *     <li>pan      - dx,dy,views: the "cached" mode renders this many views, each
+ *                    one moved by dx and dy pixels from the previous one.</li>
+ * </ul>
+ * The phases of the run are measured by a {@link PhaseTimer}: in the modes with
+ * tiles the root hands out the tiles and collects them at the same time, so
+ * all of it is counted as computing.
  *
  * @author Taras Kreshchenko
  * @version 1.0
  */
 public class DoubleComplexTesting {
-    private static final int IMAGE_SIZE = 200;
     private static final boolean DEBUG_MODE = false;
     private static int rank;
     private static int np;
     private static double real0;
     private static double imag0;
     private static double size;
+    private static int imageSize = 200;
+    private static String mode = "static";
+    private static int tileSize = 20;
+    private static int threads = 1;
+    private static String output = "mandelbrot.ppm";
+    private static String format = "ppm";
+    private static int bandRows = 16;
+    private static double[] target;
+    private static int frames = 30;
+    private static int cacheTiles = 1024;
+    private static String cacheDir;
+    private static int[] pan = {0, 0, 1};
+    private static final PhaseTimer timer = new PhaseTimer();
 
     /**
      * Runs the program. Prints the results in the console and renders the
@@ -42,11 +99,17 @@ public class DoubleComplexTesting {
      *
      * @param args           Coordinates of the bottom left corner of the
      *                       fragment of the Mandelbrot set to render and
-     *                       its size: {real0, imag0, size}.
+     *                       its size: {real0, imag0, size}, optionally
+     *                       followed by key=value settings.
      * @throws MPIException  If an error occurred during MPI communications.
+     * @throws IOException   If the frames of the zoom mode couldn't be written.
      */
-    public static void main(String[] args) throws MPIException {
-        MPI.Init(args);
+    public static void main(String[] args) throws MPIException, IOException {
+        parseOptions(args);
+        // Only the main thread makes MPI calls, so the extra threads need THREAD_FUNNELED
+        int provided = MPI.THREAD_SINGLE;
+        if (threads == 1) MPI.Init(args);
+        else provided = MPI.InitThread(args, MPI.THREAD_FUNNELED);
 
         // Initial data
         rank = MPI.COMM_WORLD.getRank();
@@ -54,38 +117,138 @@ public class DoubleComplexTesting {
         real0 = Double.parseDouble(args[0]);
         imag0 = Double.parseDouble(args[1]);
         size = Double.parseDouble(args[2]);
+        if (rank == 0 && provided < MPI.THREAD_FUNNELED && threads != 1)
+            System.out.println("Warning: MPI doesn't provide THREAD_FUNNELED support.");
 
         if (rank == 0) {
             testDoubleComplex();
             System.out.println("------------------------------------");
         }
-        runMandelbrot();
+        // The other modes keep the whole image in int[] on the root, the static one
+        // keeps both parts of every complex number of the image in one DoubleBuffer
+        long arrayLength = (long) imageSize * imageSize * (mode.equals("static") ? 2 : 1);
+        if (!mode.equals("headless") && arrayLength > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The image is too large for mode=" + mode + ", use mode=headless.");
+        switch (mode) {
+            case "static":
+                runMandelbrot();
+                break;
+            case "dynamic":
+                runMandelbrotDynamic();
+                break;
+            case "local":
+                runMandelbrotLocal();
+                break;
+            case "mariani":
+                runMandelbrotMariani();
+                break;
+            case "headless":
+                runMandelbrotHeadless();
+                break;
+            case "cached":
+                runMandelbrotCached();
+                break;
+            case "deep":
+                runMandelbrotDeep(args);
+                break;
+            case "zoom":
+                if (target == null) throw new IllegalArgumentException("The zoom mode needs a target view.");
+                if (rank == 0) System.out.println("Rendering " + frames + " frames zooming into ("
+                        + target[0] + ", " + target[1] + ", " + target[2] + ").");
+                timer.start(PhaseTimer.COMPUTE);
+                new ZoomAnimation(imageSize, frames, threads, new double[]{real0, imag0, size}, target)
+                        .render(output, format);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
 
+        timer.report("DoubleComplexTesting", imageSize);
         MPI.Finalize();
     }
 
+    // Reading key=value settings that follow the coordinates
+    private static void parseOptions(String[] args) {
+        for (int i = 3; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            if (option.length != 2) throw new IllegalArgumentException("Expected key=value, got: " + args[i]);
+            switch (option[0]) {
+                case "mode":
+                    mode = option[1];
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(option[1]);
+                    if (threads < 0) throw new IllegalArgumentException("threads must not be negative.");
+                    break;
+                case "imageSize":
+                    imageSize = Integer.parseInt(option[1]);
+                    if (imageSize < 1) throw new IllegalArgumentException("imageSize must be positive.");
+                    break;
+                case "output":
+                    output = option[1];
+                    break;
+                case "format":
+                    format = option[1];
+                    break;
+                case "bandRows":
+                    bandRows = Integer.parseInt(option[1]);
+                    if (bandRows < 1) throw new IllegalArgumentException("bandRows must be positive.");
+                    break;
+                case "target":
+                    target = Arrays.stream(option[1].split(",")).mapToDouble(Double::parseDouble).toArray();
+                    if (target.length != 3) throw new IllegalArgumentException("target must be real0,imag0,size.");
+                    break;
+                case "frames":
+                    frames = Integer.parseInt(option[1]);
+                    if (frames < 1) throw new IllegalArgumentException("frames must be positive.");
+                    break;
+                case "cacheTiles":
+                    cacheTiles = Integer.parseInt(option[1]);
+                    if (cacheTiles < 0) throw new IllegalArgumentException("cacheTiles must not be negative.");
+                    break;
+                case "cacheDir":
+                    cacheDir = option[1];
+                    break;
+                case "pan":
+                    pan = Arrays.stream(option[1].split(",")).mapToInt(Integer::parseInt).toArray();
+                    if (pan.length != 3 || pan[2] < 1)
+                        throw new IllegalArgumentException("pan must be dx,dy,views with at least 1 view.");
+                    break;
+                case "tileSize":
+                    tileSize = Integer.parseInt(option[1]);
+                    if (tileSize < 1) throw new IllegalArgumentException("tileSize must be positive.");
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option[0]);
+            }
+        }
+    }
+
     private static void runMandelbrot() throws MPIException {
         // Generating a 1D matrix with the complex numbers
-        DoubleBuffer matrixBuf = DoubleBuffer.allocate(IMAGE_SIZE*IMAGE_SIZE*2);
-        DoubleComplex[] matrix = new DoubleComplex[IMAGE_SIZE*IMAGE_SIZE];
+        DoubleBuffer matrixBuf = DoubleBuffer.allocate(imageSize*imageSize*2);
+        DoubleComplex[] matrix = new DoubleComplex[imageSize*imageSize];
         if (rank == 0) {
             System.out.println("Using class DoubleComplex to calculate a section of a Mandelbrot set in parallel.");
 
-            double step = size / IMAGE_SIZE;
-            for (int y = 0; y < IMAGE_SIZE; y++)
-                for (int x = 0; x < IMAGE_SIZE; x++) {
+            timer.start(PhaseTimer.GENERATION);
+            double step = size / imageSize;
+            for (int y = 0; y < imageSize; y++)
+                for (int x = 0; x < imageSize; x++) {
                     matrixBuf.put(real0 + step * x).put(imag0 + step * y);
-                    int i = y * IMAGE_SIZE + x;
+                    int i = y * imageSize + x;
                     // Using method get(DoubleBuffer buffer, int index) to set the corresponding
                     // complex numbers to their locations in the buffer
                     matrix[i] = DoubleComplex.get(matrixBuf, i);
                 }
 
+            timer.start(PhaseTimer.OUTPUT);
             if (DEBUG_MODE) {
                 System.out.println("Starting matrix: ");
-                for (int y = 0; y < IMAGE_SIZE; y++) printPartOfArray(matrix, y * IMAGE_SIZE, (y + 1) * IMAGE_SIZE);
+                for (int y = 0; y < imageSize; y++) printPartOfArray(matrix, y * imageSize, (y + 1) * imageSize);
                 System.out.println();
             } else System.out.println("Finished generating the matrix.");
+            timer.stop();
         }
 
         // Calculating displacements
@@ -98,41 +261,311 @@ public class DoubleComplexTesting {
         DoubleBuffer chunkBuf = DoubleBuffer.allocate(sendcount[rank]*2);
         DoubleComplex[] chunk = new DoubleComplex[sendcount[rank]];
         MPI.COMM_WORLD.barrier();
+        timer.start(PhaseTimer.DISTRIBUTION);
         MPI.COMM_WORLD.scatterv(matrixBuf, sendcount, displs, MPI.DOUBLE_COMPLEX,
                 chunkBuf, sendcount[rank], MPI.DOUBLE_COMPLEX, 0);
+        if (rank == 0) timer.addBytes(PhaseTimer.DISTRIBUTION, 16L * (matrix.length - sendcount[0]));
         // Just as before, using the same get method to fill the array of DoubleComplex
         for (int i = 0; i < sendcount[rank]; i++) chunk[i] = DoubleComplex.get(chunkBuf, i);
+        timer.stop();
 
         if (DEBUG_MODE) System.out.print("rank = " + rank + "; chunk = " + Arrays.toString(chunkBuf.array()) + '\n');
         else System.out.print("Pr" + rank + " received a chunk.\n");
 
         // Calculating mandelbrot iterations on each processor
         // Using methods getReal() and getImag() to retrieve real and imaginary
-        // parts of complex numbers and pass them to Mandelbrot::iterations
-        int[] myRes = Arrays.stream(chunk).mapToInt(c -> Mandelbrot.iterations(c.getReal(), c.getImag())).toArray();
+        // parts of complex numbers and pass them to the batch Mandelbrot::iterations
+        double startTime = MPI.wtime();
+        double[] reals = Arrays.stream(chunk).mapToDouble(DoubleComplex::getReal).toArray();
+        double[] imags = Arrays.stream(chunk).mapToDouble(DoubleComplex::getImag).toArray();
+        int[] myRes = new int[chunk.length];
+        long iters = Mandelbrot.iterations(reals, imags, chunk.length, myRes, 0);
+        double computeTime = MPI.wtime() - startTime;
+        timer.addTime(PhaseTimer.COMPUTE, computeTime);
 
         if (DEBUG_MODE) System.out.print("rank = " + rank + "; myRes = " + Arrays.toString(myRes) + '\n');
         else System.out.print("Pr" + rank + " calculated iterations.\n");
 
         // Sending the results back to the root
-        int[] pixelIters = new int[IMAGE_SIZE*IMAGE_SIZE];
+        timer.start(PhaseTimer.COLLECTION);
+        int[] pixelIters = new int[imageSize*imageSize];
         MPI.COMM_WORLD.gatherv(myRes, myRes.length, MPI.INT,
                 pixelIters, sendcount, displs, MPI.INT, 0);
+        if (rank != 0) timer.addBytes(PhaseTimer.COLLECTION, 4L * myRes.length);
+        timer.stop();
+
+        printLoadReport(1, myRes.length, iters, computeTime);
 
         if (rank == 0) {
             System.out.println("Results received.");
+            showResult(pixelIters);
+        }
+    }
+
+    // Same split as in runMandelbrot, but without generating and scattering the coordinates:
+    // each processor only needs the view and its range of pixel indices to compute them
+    private static void runMandelbrotLocal() throws MPIException {
+        int pixelCount = imageSize*imageSize;
+        if (rank == 0) System.out.println("Calculating a section of a Mandelbrot set in parallel "
+                + "without scattering the coordinates.");
 
-            // Rendering the result
-            int[] pixels = Arrays.stream(pixelIters).map(m -> Color.HSBtoRGB(
-                    ((float)m)/Mandelbrot.MAX_ITER, 1f, (m < Mandelbrot.MAX_ITER)?1f:0f)).toArray();
-            BufferedImage img = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
-            for (int y = 0; y < IMAGE_SIZE; y++)
-                for (int x = 0; x < IMAGE_SIZE; x++)
-                    img.setRGB(x, IMAGE_SIZE - y - 1, pixels[y*IMAGE_SIZE + x]);
+        // Calculating displacements
+        float elemsPerProcessor = ((float) pixelCount) / np;
+        int[] displs = IntStream.range(0, np).map(x -> Math.round(x * elemsPerProcessor)).toArray();
+        int[] sendcount = IntStream.range(0, np)
+                .map(x -> (x == np-1) ? pixelCount - displs[x] : displs[x + 1] - displs[x]).toArray();
+
+        // Calculating mandelbrot iterations of this processor's pixels straight into an int[]
+        MPI.COMM_WORLD.barrier();
+        double startTime = MPI.wtime();
+        int[] myRes = new int[sendcount[rank]];
+        ParallelMandelbrot kernel = new ParallelMandelbrot(threads, real0, imag0, size / imageSize, imageSize);
+        long iters = kernel.computeRange(displs[rank], displs[rank] + sendcount[rank], myRes, 0);
+        kernel.shutdown();
+        double computeTime = MPI.wtime() - startTime;
+        timer.addTime(PhaseTimer.COMPUTE, computeTime);
+
+        if (DEBUG_MODE) System.out.print("rank = " + rank + "; myRes = " + Arrays.toString(myRes) + '\n');
+        else System.out.print("Pr" + rank + " calculated iterations.\n");
+
+        // Sending the results back to the root
+        timer.start(PhaseTimer.COLLECTION);
+        int[] pixelIters = new int[pixelCount];
+        MPI.COMM_WORLD.gatherv(myRes, myRes.length, MPI.INT,
+                pixelIters, sendcount, displs, MPI.INT, 0);
+        if (rank != 0) timer.addBytes(PhaseTimer.COLLECTION, 4L * myRes.length);
+        timer.stop();
 
-            System.out.println("Rendering...");
-            renderImage(img, "(" + real0 + ", " + imag0 + ", " + size + ')');
+        printLoadReport(1, myRes.length, iters, computeTime);
+
+        if (rank == 0) {
+            System.out.println("Results received.");
+            showResult(pixelIters);
+        }
+    }
+
+    // Same fragment, but the image is cut into tiles that rank 0 hands out on demand
+    private static void runMandelbrotDynamic() throws MPIException {
+        ParallelMandelbrot kernel = new ParallelMandelbrot(threads, real0, imag0, size / imageSize, imageSize);
+        TileScheduler scheduler = new TileScheduler(imageSize, tileSize, kernel);
+        int[] pixelIters = new int[imageSize*imageSize];
+        if (rank == 0) System.out.println("Using " + scheduler.getTileCount() + " tiles of size "
+                + tileSize + " to calculate a section of a Mandelbrot set in parallel.");
+
+        MPI.COMM_WORLD.barrier();
+        double startTime = MPI.wtime();
+        if (rank == 0) scheduler.coordinate(pixelIters);
+        else scheduler.work();
+        double computeTime = MPI.wtime() - startTime;
+        timer.addTime(PhaseTimer.COMPUTE, computeTime);
+        kernel.shutdown();
+
+        printLoadReport(scheduler.getTilesDone(), scheduler.getPixelsDone(), scheduler.getItersDone(), computeTime);
+
+        if (rank == 0) {
+            System.out.println("Results received.");
+            showResult(pixelIters);
+        }
+    }
+
+    // Same split as in runMandelbrotLocal. The root computes the orbit of the center of the view
+    // precisely from the original arguments and broadcasts it, the pixels are perturbations of it
+    private static void runMandelbrotDeep(String[] args) throws MPIException {
+        int pixelCount = imageSize*imageSize;
+        double[] orbit = new double[2 * (Mandelbrot.MAX_ITER + 1)];
+        timer.start(PhaseTimer.GENERATION);
+        if (rank == 0) {
+            BigDecimal bigSize = new BigDecimal(args[2]);
+            BigDecimal half = bigSize.divide(BigDecimal.valueOf(2));
+            int precision = Math.max(20, (int) Math.ceil(-Math.log10(size)) + 20);
+            System.out.println("Calculating the reference orbit with " + precision + " digits.");
+            orbit = DeepZoom.referenceOrbit(new BigDecimal(args[0]).add(half), new BigDecimal(args[1]).add(half), precision);
         }
+        timer.start(PhaseTimer.DISTRIBUTION);
+        MPI.COMM_WORLD.bcast(orbit, orbit.length, MPI.DOUBLE, 0);
+        if (rank == 0) timer.addBytes(PhaseTimer.DISTRIBUTION, 8L * orbit.length * (np - 1));
+        timer.stop();
+        DeepZoom deepZoom = new DeepZoom(orbit, DeepZoom.orbitLength(orbit), size / imageSize, imageSize);
+
+        // Calculating displacements
+        float elemsPerProcessor = ((float) pixelCount) / np;
+        int[] displs = IntStream.range(0, np).map(x -> Math.round(x * elemsPerProcessor)).toArray();
+        int[] sendcount = IntStream.range(0, np)
+                .map(x -> (x == np-1) ? pixelCount - displs[x] : displs[x + 1] - displs[x]).toArray();
+
+        MPI.COMM_WORLD.barrier();
+        double startTime = MPI.wtime();
+        int[] myRes = new int[sendcount[rank]];
+        deepZoom.computeRange(displs[rank], displs[rank] + sendcount[rank], myRes, 0);
+        double computeTime = MPI.wtime() - startTime;
+        timer.addTime(PhaseTimer.COMPUTE, computeTime);
+        System.out.print("Pr" + rank + " calculated iterations.\n");
+
+        // Sending the results back to the root
+        timer.start(PhaseTimer.COLLECTION);
+        int[] pixelIters = new int[pixelCount];
+        MPI.COMM_WORLD.gatherv(myRes, myRes.length, MPI.INT,
+                pixelIters, sendcount, displs, MPI.INT, 0);
+        if (rank != 0) timer.addBytes(PhaseTimer.COLLECTION, 4L * myRes.length);
+        timer.stop();
+
+        printLoadReport(1, myRes.length, Arrays.stream(myRes).asLongStream().sum(), computeTime);
+        long[] rebases = new long[1];
+        MPI.COMM_WORLD.reduce(new long[]{deepZoom.getRebases()}, rebases, 1, MPI.LONG, MPI.SUM, 0);
+
+        if (rank == 0) {
+            System.out.println("Rebased orbits " + rebases[0] + " times.");
+            System.out.println("Results received.");
+            showResult(pixelIters);
+        }
+    }
+
+    // Same as runMandelbrotDynamic, but the tiles line up with a grid of all pixels at this zoom,
+    // so the tiles that were already computed for this or another view come from the cache.
+    // The cache is kept by the coordinator, the workers only get the tiles it doesn't have
+    private static void runMandelbrotCached() throws MPIException {
+        double step = size / imageSize;
+        long gridX0 = Math.round(real0 / step);
+        long gridY0 = Math.round(imag0 / step);
+        ParallelMandelbrot kernel = new ParallelMandelbrot(threads, 0, 0, step, imageSize);
+        TileCache cache = (rank == 0) ? new TileCache(kernel, cacheTiles, cacheDir, step, gridX0, gridY0) : null;
+        int[] pixelIters = new int[imageSize*imageSize];
+        int tiles = 0;
+        long pixels = 0, iters = 0;
+        double computeTime = 0;
+
+        // Every view is moved by whole pixels, so the tiles the views share stay on the grid
+        for (int view = 0; view < pan[2]; view++, gridX0 += pan[0], gridY0 += pan[1]) {
+            kernel.setGrid(gridX0, gridY0, step);
+            TileScheduler scheduler = new TileScheduler(imageSize, tileSize,
+                    (int) Math.floorMod(gridX0, (long) tileSize), (int) Math.floorMod(gridY0, (long) tileSize), kernel);
+            long[] before = new long[3];
+            if (rank == 0) {
+                cache.setView(gridX0, gridY0);
+                scheduler.setCache(cache);
+                before = new long[]{cache.getMemoryHits(), cache.getDiskHits(), cache.getMisses()};
+            }
+            if (rank == 0) System.out.println("Using " + scheduler.getTileCount() + " cached tiles of size " + tileSize
+                    + " to calculate a section of a Mandelbrot set starting at (" + gridX0 * step + ", " + gridY0 * step + ").");
+
+            MPI.COMM_WORLD.barrier();
+            double startTime = MPI.wtime();
+            if (rank == 0) scheduler.coordinate(pixelIters);
+            else scheduler.work();
+            computeTime += MPI.wtime() - startTime;
+            tiles += scheduler.getTilesDone();
+            pixels += scheduler.getPixelsDone();
+            iters += scheduler.getItersDone();
+            if (rank == 0) System.out.println("View " + view + ": memory hits = " + (cache.getMemoryHits() - before[0])
+                    + "; disk hits = " + (cache.getDiskHits() - before[1]) + "; misses = " + (cache.getMisses() - before[2]));
+        }
+        timer.addTime(PhaseTimer.COMPUTE, computeTime);
+        kernel.shutdown();
+
+        printLoadReport(tiles, pixels, iters, computeTime);
+        if (rank == 0) {
+            System.out.println("Cache: memory hits = " + cache.getMemoryHits() + "; disk hits = " + cache.getDiskHits()
+                    + "; misses = " + cache.getMisses() + "; pixels not computed = " + cache.getPixelsSaved()
+                    + "; iterations saved = " + cache.getItersSaved());
+            System.out.println("Results received.");
+            showResult(pixelIters);
+        }
+    }
+
+    // Same tiles as in runMandelbrotDynamic, but only the borders of uniform rectangles get iterated
+    private static void runMandelbrotMariani() throws MPIException {
+        MarianiSilver subdivision = new MarianiSilver(real0, imag0, size / imageSize);
+        TileScheduler scheduler = new TileScheduler(imageSize, tileSize, subdivision);
+        int[] pixelIters = new int[imageSize*imageSize];
+        if (rank == 0) System.out.println("Using " + scheduler.getTileCount() + " tiles of size " + tileSize
+                + " to calculate a section of a Mandelbrot set with Mariani-Silver subdivision.");
+
+        MPI.COMM_WORLD.barrier();
+        double startTime = MPI.wtime();
+        if (rank == 0) scheduler.coordinate(pixelIters);
+        else scheduler.work();
+        double computeTime = MPI.wtime() - startTime;
+        timer.addTime(PhaseTimer.COMPUTE, computeTime);
+
+        printLoadReport(scheduler.getTilesDone(), scheduler.getPixelsDone(), scheduler.getItersDone(), computeTime);
+        long[] filled = new long[1];
+        MPI.COMM_WORLD.reduce(new long[]{subdivision.getPixelsFilled()}, filled, 1, MPI.LONG, MPI.SUM, 0);
+
+        if (rank == 0) {
+            System.out.printf("Filled without iterating: %d of %d pixels (%.1f%%)%n", filled[0],
+                    pixelIters.length, 100.0 * filled[0] / pixelIters.length);
+            System.out.println("Results received.");
+            showResult(pixelIters);
+        }
+    }
+
+    // Bands of rows are dealt round-robin, so the expensive parts of the image are shared evenly.
+    // Each processor colours its bands and writes them straight into the file
+    private static void runMandelbrotHeadless() throws MPIException {
+        int bandCount = (imageSize + bandRows - 1) / bandRows;
+        if (rank == 0) System.out.println("Writing a " + imageSize + 'x' + imageSize + " section of a Mandelbrot set to "
+                + output + " in " + bandCount + " bands of " + bandRows + " rows.");
+
+        ParallelMandelbrot kernel = new ParallelMandelbrot(threads, real0, imag0, size / imageSize, imageSize);
+        ImageWriter writer = new ImageWriter(output, format, imageSize, imageSize);
+        int[] bandIters = new int[imageSize * bandRows];
+        int bands = 0;
+        long pixels = 0, iters = 0;
+
+        MPI.COMM_WORLD.barrier();
+        double startTime = MPI.wtime();
+        for (int band = rank; band < bandCount; band += np) {
+            int y0 = band * bandRows;
+            int y1 = Math.min(y0 + bandRows, imageSize);
+            timer.start(PhaseTimer.COMPUTE);
+            iters += kernel.computeRect(0, imageSize, y0, y1, bandIters, 0);
+            timer.start(PhaseTimer.OUTPUT);
+            writer.writeRows(y0, y1, bandIters);
+            bands++;
+            pixels += (long) imageSize * (y1 - y0);
+        }
+        timer.start(PhaseTimer.OUTPUT);
+        writer.close();
+        timer.stop();
+        double computeTime = MPI.wtime() - startTime;
+        kernel.shutdown();
+
+        printLoadReport(bands, pixels, iters, computeTime);
+        if (rank == 0) System.out.println("The image is written to " + output + '.');
+    }
+
+    // Gathering the amount of work done by each processor and printing it on the root
+    private static void printLoadReport(int tiles, long pixels, long iters, double seconds) throws MPIException {
+        double[] report = new double[4 * np];
+        MPI.COMM_WORLD.gather(new double[]{tiles, pixels, iters, seconds}, 4, MPI.DOUBLE,
+                report, 4, MPI.DOUBLE, 0);
+
+        if (rank == 0) {
+            System.out.println("Load report:");
+            double maxIters = 0, totalIters = 0;
+            for (int r = 0; r < np; r++) {
+                System.out.printf("Pr%d: tiles = %.0f; pixels = %.0f; iterations = %.0f; time = %.4fs%n",
+                        r, report[4*r], report[4*r + 1], report[4*r + 2], report[4*r + 3]);
+                maxIters = Math.max(maxIters, report[4*r + 2]);
+                totalIters += report[4*r + 2];
+            }
+            // 1.0 means that every processor did the same amount of iterations
+            System.out.printf("Imbalance (max / mean iterations): %.3f%n", maxIters / (totalIters / np));
+        }
+    }
+
+    // Coloring the iterations and rendering them on the root
+    private static void showResult(int[] pixelIters) throws MPIException {
+        timer.start(PhaseTimer.OUTPUT);
+        int[] pixels = Arrays.stream(pixelIters).map(ImageWriter::colour).toArray();
+        BufferedImage img = new BufferedImage(imageSize, imageSize, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < imageSize; y++)
+            for (int x = 0; x < imageSize; x++)
+                img.setRGB(x, imageSize - y - 1, pixels[y*imageSize + x]);
+
+        System.out.println("Rendering...");
+        renderImage(img, "(" + real0 + ", " + imag0 + ", " + size + ')');
+        timer.stop();
     }
 
     // Rendering Mandelbrot set using Java Swing
@@ -149,7 +582,7 @@ public class DoubleComplexTesting {
                 g2.drawImage(img, 0, 0, null);
             }
         };
-        component.setPreferredSize(new Dimension(IMAGE_SIZE, IMAGE_SIZE));
+        component.setPreferredSize(new Dimension(imageSize, imageSize));
         frame.add(component, BorderLayout.CENTER);
         frame.pack();
         frame.setVisible(true);
@@ -0,0 +1,146 @@
+package x74r45.finalTask;
+
+import mpi.MPI;
+import mpi.MPIException;
+
+import java.awt.*;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a Mandelbrot image into one file from all processors at once using
+ * MPI-IO. Every processor colours its own rows and writes them at their offset
+ * in the file, so no processor needs to hold the whole image.
+ * An image that is already gathered on one processor can be written with
+ * {@link #write(String, String, int, int, IntBuffer)}.
+ * Supported formats:
+ * <ul>
+ *     <li>ppm - binary PPM (P6), which most image viewers can open;</li>
+ *     <li>raw - the same RGB bytes without a header.</li>
+ * </ul>
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class ImageWriter {
+    private static final int[] PALETTE = createPalette();
+
+    private final mpi.File file;
+    private final int width;
+    private final int height;
+    private final long headerLength;
+    private ByteBuffer rowsBuf = MPI.newByteBuffer(0);
+
+    /**
+     * Opens the file on all processors. Must be called by every processor.
+     *
+     * @param path           The file to write the image to.
+     * @param format         "ppm" or "raw".
+     * @param width          The width of the image in pixels.
+     * @param height         The height of the image in pixels.
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public ImageWriter(String path, String format, int width, int height) throws MPIException {
+        byte[] header = header(format, width, height);
+        this.width = width;
+        this.height = height;
+        this.headerLength = header.length;
+
+        file = new mpi.File(MPI.COMM_WORLD, path, MPI.MODE_CREATE | MPI.MODE_WRONLY);
+        file.setSize(headerLength + 3L * width * height);
+        if (MPI.COMM_WORLD.getRank() == 0 && header.length > 0) {
+            ByteBuffer headerBuf = MPI.newByteBuffer(header.length);
+            headerBuf.put(header);
+            file.writeAt(0, headerBuf, header.length, MPI.BYTE);
+        }
+    }
+
+    /**
+     * Colours the rows [y0, y1) and writes them to the file. Row 0 is the bottom
+     * one, as in the rest of the program, so it ends up last in the file.
+     *
+     * @param y0             The first row.
+     * @param y1             The row after the last one.
+     * @param iters          The iterations of the rows, starting from row y0.
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public void writeRows(int y0, int y1, int[] iters) throws MPIException {
+        int length = 3 * width * (y1 - y0);
+        if (rowsBuf.capacity() < length) rowsBuf = MPI.newByteBuffer(length);
+
+        // The top row (y1 - 1) goes first
+        rowsBuf.clear();
+        for (int y = y1 - 1; y >= y0; y--)
+            for (int i = (y - y0) * width, end = i + width; i < end; i++) {
+                int rgb = PALETTE[iters[i]];
+                rowsBuf.put((byte) (rgb >> 16)).put((byte) (rgb >> 8)).put((byte) rgb);
+            }
+        file.writeAt(headerLength + 3L * width * (height - y1), rowsBuf, length, MPI.BYTE);
+    }
+
+    /**
+     * Closes the file. Must be called by every processor.
+     *
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public void close() throws MPIException {
+        file.close();
+    }
+
+    /**
+     * Colours a whole image and writes it to a file from this processor only.
+     *
+     * @param path         The file to write the image to.
+     * @param format       "ppm" or "raw".
+     * @param width        The width of the image in pixels.
+     * @param height       The height of the image in pixels.
+     * @param iters        The iterations of the pixels row by row, starting from the bottom row.
+     * @throws IOException If the file couldn't be written.
+     */
+    public static void write(String path, String format, int width, int height, IntBuffer iters) throws IOException {
+        byte[] row = new byte[3 * width];
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(path))) {
+            out.write(header(format, width, height));
+            for (int y = height - 1; y >= 0; y--) {
+                for (int x = 0, i = 0; x < width; x++) {
+                    int rgb = PALETTE[iters.get(y * width + x)];
+                    row[i++] = (byte) (rgb >> 16);
+                    row[i++] = (byte) (rgb >> 8);
+                    row[i++] = (byte) rgb;
+                }
+                out.write(row);
+            }
+        }
+    }
+
+    /**
+     * Returns the colour of a pixel with the given amount of iterations.
+     */
+    public static int colour(int iters) {
+        return PALETTE[iters];
+    }
+
+    private static byte[] header(String format, int width, int height) {
+        switch (format) {
+            case "ppm":
+                return ("P6\n" + width + ' ' + height + "\n255\n").getBytes(StandardCharsets.US_ASCII);
+            case "raw":
+                return new byte[0];
+            default:
+                throw new IllegalArgumentException("Unknown format: " + format);
+        }
+    }
+
+    // Precomputing the colours for every possible amount of iterations
+    private static int[] createPalette() {
+        int[] palette = new int[Mandelbrot.MAX_ITER + 1];
+        for (int m = 0; m <= Mandelbrot.MAX_ITER; m++)
+            palette[m] = Color.HSBtoRGB(((float)m)/Mandelbrot.MAX_ITER, 1f, (m < Mandelbrot.MAX_ITER)?1f:0f);
+        return palette;
+    }
+}
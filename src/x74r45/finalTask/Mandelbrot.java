@@ -9,6 +9,9 @@ package x74r45.finalTask;
  */
 public class Mandelbrot {
     public static final int MAX_ITER = 1000;
+    private static final int BLOCK_SIZE = 256;
+    // The first iteration at which the batch kernel saves the orbit to look for cycles
+    private static final int FIRST_CHECK = 8;
 
     public static int iterations(double real, double imag) {
         double x, y, x2, y2;
@@ -23,4 +26,230 @@ public class Mandelbrot {
         }
         return iter;
     }
+
+    /**
+     * Computes the iterations for the pixels with indices from (inclusive)
+     * to (exclusive) of a square image, whose pixels are numbered row by row
+     * starting from the bottom left corner (real0, imag0). The coordinates
+     * are derived from the index, so no complex numbers need to be created.
+     *
+     * @param real0   The real value of the bottom left coordinate.
+     * @param imag0   The imaginary value of the bottom left coordinate.
+     * @param step    The distance between two neighbouring pixels.
+     * @param width   The amount of pixels in a row.
+     * @param from    The index of the first pixel.
+     * @param to      The index after the last pixel.
+     * @param out     The array to put the iterations into.
+     * @param offset  The position in out for the first pixel.
+     * @return        The amount of iterations that were actually made.
+     */
+    public static long iterations(double real0, double imag0, double step, int width,
+                                  long from, long to, int[] out, int offset) {
+        // Feeding the batch kernel with blocks of coordinates
+        int blockSize = (int) Math.min(BLOCK_SIZE, to - from);
+        double[] real = new double[blockSize];
+        double[] imag = new double[blockSize];
+        long iters = 0;
+        for (long start = from; start < to; start += blockSize) {
+            int count = (int) Math.min(blockSize, to - start);
+            for (int i = 0; i < count; i++) {
+                real[i] = real0 + step * ((start + i) % width);
+                imag[i] = imag0 + step * ((start + i) / width);
+            }
+            iters += iterations(real, imag, count, out, offset + (int) (start - from));
+        }
+        return iters;
+    }
+
+    /**
+     * Computes the iterations like
+     * {@link #iterations(double, double, double, int, long, long, int[], int)},
+     * but the coordinates of a pixel are its position on the grid of all pixels
+     * of this step times the step, so a pixel has the same coordinates in every
+     * view that is aligned to the grid.
+     *
+     * @param gridX0  The position of the image's left column on the grid.
+     * @param gridY0  The position of the image's bottom row on the grid.
+     * @param step    The distance between two neighbouring pixels.
+     * @param width   The amount of pixels in a row.
+     * @param from    The index of the first pixel.
+     * @param to      The index after the last pixel.
+     * @param out     The array to put the iterations into.
+     * @param offset  The position in out for the first pixel.
+     * @return        The amount of iterations that were actually made.
+     */
+    public static long gridIterations(long gridX0, long gridY0, double step, int width,
+                                      long from, long to, int[] out, int offset) {
+        int blockSize = (int) Math.min(BLOCK_SIZE, to - from);
+        double[] real = new double[blockSize];
+        double[] imag = new double[blockSize];
+        long iters = 0;
+        for (long start = from; start < to; start += blockSize) {
+            int count = (int) Math.min(blockSize, to - start);
+            for (int i = 0; i < count; i++) {
+                real[i] = (gridX0 + (start + i) % width) * step;
+                imag[i] = (gridY0 + (start + i) / width) * step;
+            }
+            iters += iterations(real, imag, count, out, offset + (int) (start - from));
+        }
+        return iters;
+    }
+
+    /**
+     * Computes the iterations for a batch of points. Gives exactly the same
+     * results as {@link #iterations(double, double)}, but:
+     * <ul>
+     *     <li>the points inside the main cardioid and the period-2 bulb get
+     *         MAX_ITER right away, without iterating;</li>
+     *     <li>an orbit that comes back exactly to one of its previous values is
+     *         periodic and can't escape anymore, so it gets MAX_ITER as well;</li>
+     *     <li>two points are iterated side by side, and the one that finished
+     *         is replaced with the next point, so the two independent
+     *         computations keep the processor's pipeline full.</li>
+     * </ul>
+     *
+     * @param real    The real values of the points.
+     * @param imag    The imaginary values of the points.
+     * @param count   The amount of points to compute.
+     * @param out     The array to put the iterations into.
+     * @param offset  The position in out for the first point.
+     * @return        The amount of iterations that were actually made, the points
+     *                that were skipped by the checks count only the iterations before.
+     */
+    public static long iterations(double[] real, double[] imag, int count, int[] out, int offset) {
+        // Lane a
+        int pa = -1, iterA = 0, checkA = 0;
+        double ra = 0, ia = 0, xa = 0, ya = 0, x2a = 0, y2a = 0, savedXa = 0, savedYa = 0;
+        // Lane b
+        int pb = -1, iterB = 0, checkB = 0;
+        double rb = 0, ib = 0, xb = 0, yb = 0, x2b = 0, y2b = 0, savedXb = 0, savedYb = 0;
+
+        long iters = 0;
+        int next = 0;
+        while (true) {
+            // Taking the next points that need iterating into the free lanes
+            if (pa < 0 && (next = nextPoint(real, imag, count, next, out, offset)) < count) {
+                pa = next++;
+                ra = real[pa];
+                ia = imag[pa];
+                xa = ya = x2a = y2a = savedXa = savedYa = 0d;
+                iterA = 0;
+                checkA = FIRST_CHECK;
+            }
+            if (pb < 0 && (next = nextPoint(real, imag, count, next, out, offset)) < count) {
+                pb = next++;
+                rb = real[pb];
+                ib = imag[pb];
+                xb = yb = x2b = y2b = savedXb = savedYb = 0d;
+                iterB = 0;
+                checkB = FIRST_CHECK;
+            }
+            if (pa < 0 && pb < 0) return iters;
+            if (pa < 0 || pb < 0) {
+                // The last point is left, there is nothing to pair it with, so it continues alone
+                if (pa >= 0) iters += finishOrbit(ra, ia, xa, ya, iterA, savedXa, savedYa, checkA, out, offset + pa);
+                else iters += finishOrbit(rb, ib, xb, yb, iterB, savedXb, savedYb, checkB, out, offset + pb);
+                pa = pb = -1;
+                continue;
+            }
+
+            while (true) {
+                if (x2a + y2a > 4 || iterA == MAX_ITER) {
+                    out[offset + pa] = iterA;
+                    iters += iterA;
+                    pa = -1;
+                    break;
+                }
+                if (x2b + y2b > 4 || iterB == MAX_ITER) {
+                    out[offset + pb] = iterB;
+                    iters += iterB;
+                    pb = -1;
+                    break;
+                }
+                ya = 2*xa*ya + ia;
+                xa = x2a - y2a + ra;
+                yb = 2*xb*yb + ib;
+                xb = x2b - y2b + rb;
+                x2a = xa * xa;
+                y2a = ya * ya;
+                x2b = xb * xb;
+                y2b = yb * yb;
+                iterA++;
+                iterB++;
+
+                // Brent's cycle detection: the saved value moves forward at the powers of 2.
+                // Both lanes finish their step before leaving, so the other one can continue from it
+                boolean cycled = false;
+                if (xa == savedXa && ya == savedYa) {
+                    out[offset + pa] = MAX_ITER;
+                    iters += iterA;
+                    pa = -1;
+                    cycled = true;
+                } else if (iterA == checkA) {
+                    savedXa = xa;
+                    savedYa = ya;
+                    checkA <<= 1;
+                }
+                if (xb == savedXb && yb == savedYb) {
+                    out[offset + pb] = MAX_ITER;
+                    iters += iterB;
+                    pb = -1;
+                    cycled = true;
+                } else if (iterB == checkB) {
+                    savedXb = xb;
+                    savedYb = yb;
+                    checkB <<= 1;
+                }
+                if (cycled) break;
+            }
+        }
+    }
+
+    // Same as iterations(double, double) with the periodicity check, continuing an orbit
+    // from the state a lane of the batch kernel left it in. Puts the result into out[index]
+    // and returns the amount of iterations made
+    private static int finishOrbit(double real, double imag, double x, double y, int iter,
+                                   double savedX, double savedY, int checkAt, int[] out, int index) {
+        double x2 = x * x, y2 = y * y;
+        while (x2 + y2 <= 4 && iter < MAX_ITER) {
+            y = 2*x*y + imag;
+            x = x2 - y2 + real;
+            x2 = x * x;
+            y2 = y * y;
+            iter++;
+            if (x == savedX && y == savedY) {
+                out[index] = MAX_ITER;
+                return iter;
+            }
+            if (iter == checkAt) {
+                savedX = x;
+                savedY = y;
+                checkAt <<= 1;
+            }
+        }
+        out[index] = iter;
+        return iter;
+    }
+
+    // Finding the first point starting from next that isn't known to be inside the set,
+    // the points that are skipped get MAX_ITER
+    private static int nextPoint(double[] real, double[] imag, int count, int next, int[] out, int offset) {
+        for (; next < count; next++) {
+            if (!isInCardioidOrBulb(real[next], imag[next])) break;
+            out[offset + next] = MAX_ITER;
+        }
+        return next;
+    }
+
+    /**
+     * Checks whether the point lies inside the main cardioid or the period-2 bulb
+     * of the Mandelbrot set. All of these points are in the set, so iterating them
+     * would always take MAX_ITER iterations.
+     */
+    public static boolean isInCardioidOrBulb(double real, double imag) {
+        double imag2 = imag * imag;
+        double q = (real - 0.25) * (real - 0.25) + imag2;
+        if (q * (q + (real - 0.25)) < 0.25 * imag2) return true;
+        return (real + 1) * (real + 1) + imag2 < 0.0625;
+    }
 }
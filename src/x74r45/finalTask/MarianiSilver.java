@@ -0,0 +1,152 @@
+package x74r45.finalTask;
+
+import java.util.Arrays;
+
+/**
+ * Computes rectangles of an image with the Mariani-Silver algorithm:
+ * only the border of a rectangle is iterated, and if all the border pixels
+ * have the same amount of iterations, the inside is filled with it without
+ * computing. Otherwise the rectangle is split into four and each part is
+ * processed the same way. Since the Mandelbrot set is connected, a rectangle
+ * whose border is inside the set is entirely inside it, which makes the
+ * large black areas almost free. For the other uniform areas this is a
+ * heuristic and thin filaments narrower than a pixel may be filled over.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class MarianiSilver implements TileKernel {
+    // Rectangles with a side this small are computed pixel by pixel
+    private static final int MIN_SIDE = 4;
+    private static final int UNKNOWN = -1;
+
+    private final double real0;
+    private final double imag0;
+    private final double step;
+
+    // The rectangle being computed and where its pixels go
+    private int[] out;
+    private int offset;
+    private int stride;
+    private int left;
+    private int bottom;
+
+    // Coordinates of the border pixels passed to the batch kernel
+    private double[] reals = new double[0];
+    private double[] imags = new double[0];
+    private int[] positions = new int[0];
+    private int[] results = new int[0];
+
+    // Statistics for the report
+    private long pixelsIterated;
+    private long pixelsFilled;
+
+    /**
+     * @param real0  The real value of the bottom left coordinate.
+     * @param imag0  The imaginary value of the bottom left coordinate.
+     * @param step   The distance between two neighbouring pixels.
+     */
+    public MarianiSilver(double real0, double imag0, double step) {
+        this.real0 = real0;
+        this.imag0 = imag0;
+        this.step = step;
+    }
+
+    @Override
+    public long computeRect(int x0, int x1, int y0, int y1, int[] out, int offset) {
+        this.out = out;
+        this.offset = offset;
+        this.stride = x1 - x0;
+        this.left = x0;
+        this.bottom = y0;
+        Arrays.fill(out, offset, offset + (x1 - x0) * (y1 - y0), UNKNOWN);
+        return subdivide(x0, x1 - 1, y0, y1 - 1);
+    }
+
+    // Processing the rectangle with the corners (x0, y0) and (x1, y1), inclusive
+    private long subdivide(int x0, int x1, int y0, int y1) {
+        if (x1 - x0 < MIN_SIDE || y1 - y0 < MIN_SIDE) return computeInside(x0, x1, y0, y1);
+
+        long iters = computeBorder(x0, x1, y0, y1);
+        int value = get(x0, y0);
+        boolean uniform = true;
+        for (int x = x0; x <= x1 && uniform; x++) uniform = get(x, y0) == value && get(x, y1) == value;
+        for (int y = y0; y <= y1 && uniform; y++) uniform = get(x0, y) == value && get(x1, y) == value;
+
+        if (uniform) {
+            for (int y = y0 + 1; y < y1; y++)
+                Arrays.fill(out, position(x0 + 1, y), position(x1, y), value);
+            pixelsFilled += (long) (x1 - x0 - 1) * (y1 - y0 - 1);
+            return iters;
+        }
+
+        // The parts share the middle lines, so their borders are already partly known
+        int mx = (x0 + x1) >>> 1;
+        int my = (y0 + y1) >>> 1;
+        return iters + subdivide(x0, mx, y0, my) + subdivide(mx, x1, y0, my)
+                + subdivide(x0, mx, my, y1) + subdivide(mx, x1, my, y1);
+    }
+
+    private long computeBorder(int x0, int x1, int y0, int y1) {
+        int count = 0;
+        ensureCapacity(2 * (x1 - x0 + y1 - y0));
+        for (int x = x0; x <= x1; x++) {
+            count = addIfUnknown(x, y0, count);
+            count = addIfUnknown(x, y1, count);
+        }
+        for (int y = y0 + 1; y < y1; y++) {
+            count = addIfUnknown(x0, y, count);
+            count = addIfUnknown(x1, y, count);
+        }
+        return computeAdded(count);
+    }
+
+    private long computeInside(int x0, int x1, int y0, int y1) {
+        int count = 0;
+        ensureCapacity((x1 - x0 + 1) * (y1 - y0 + 1));
+        for (int y = y0; y <= y1; y++)
+            for (int x = x0; x <= x1; x++) count = addIfUnknown(x, y, count);
+        return computeAdded(count);
+    }
+
+    private int addIfUnknown(int x, int y, int count) {
+        int position = position(x, y);
+        if (out[position] != UNKNOWN) return count;
+        out[position] = 0; // so that the corners aren't added twice
+        reals[count] = real0 + step * x;
+        imags[count] = imag0 + step * y;
+        positions[count] = position;
+        return count + 1;
+    }
+
+    private long computeAdded(int count) {
+        long iters = Mandelbrot.iterations(reals, imags, count, results, 0);
+        for (int i = 0; i < count; i++) out[positions[i]] = results[i];
+        pixelsIterated += count;
+        return iters;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (reals.length >= capacity) return;
+        reals = new double[capacity];
+        imags = new double[capacity];
+        positions = new int[capacity];
+        results = new int[capacity];
+    }
+
+    private int get(int x, int y) {
+        return out[position(x, y)];
+    }
+
+    private int position(int x, int y) {
+        return offset + (y - bottom) * stride + (x - left);
+    }
+
+    public long getPixelsIterated() {
+        return pixelsIterated;
+    }
+
+    public long getPixelsFilled() {
+        return pixelsFilled;
+    }
+}
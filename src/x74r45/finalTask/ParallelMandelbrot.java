@@ -0,0 +1,149 @@
+package x74r45.finalTask;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes Mandelbrot iterations of a part of an image using several threads
+ * of one processor. The rows are split in halves until a single row is left,
+ * and the idle threads steal the remaining halves from the busy ones, so the
+ * rows inside the set don't leave the other cores idle.
+ * With one thread everything is computed on the calling thread.
+ * After {@link #setGrid} the coordinates of the pixels are taken from their
+ * positions on the grid of all pixels, see
+ * {@link Mandelbrot#gridIterations(long, long, double, int, long, long, int[], int)}.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class ParallelMandelbrot implements TileKernel {
+    private final ForkJoinPool pool;
+    private double real0;
+    private double imag0;
+    private double step;
+    private final int width;
+    private boolean onGrid;
+    private long gridX0;
+    private long gridY0;
+
+    /**
+     * @param threads  The amount of threads to use, 0 to use all available cores.
+     * @param real0    The real value of the bottom left coordinate.
+     * @param imag0    The imaginary value of the bottom left coordinate.
+     * @param step     The distance between two neighbouring pixels.
+     * @param width    The amount of pixels in a row of the image.
+     */
+    public ParallelMandelbrot(int threads, double real0, double imag0, double step, int width) {
+        if (threads == 0) threads = Runtime.getRuntime().availableProcessors();
+        this.pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+        this.real0 = real0;
+        this.imag0 = imag0;
+        this.step = step;
+        this.width = width;
+    }
+
+    /**
+     * Computes the iterations for the pixels with indices from (inclusive)
+     * to (exclusive), the same way as
+     * {@link Mandelbrot#iterations(double, double, double, int, long, long, int[], int)}.
+     *
+     * @return  The amount of iterations that were actually made.
+     */
+    public long computeRange(int from, int to, int[] out, int offset) {
+        if (from >= to) return 0;
+        int firstRow = from / width;
+        int lastRow = (to - 1) / width;
+        if (pool == null || firstRow == lastRow) return iterations(from, to, out, offset);
+
+        // The range is an incomplete first row, a block of full rows and an incomplete last row
+        int headLength = (firstRow + 1) * width - from;
+        int tailLength = to - lastRow * width;
+        RowsTask head = new RowsTask(from % width, width, firstRow, firstRow + 1, out, offset);
+        RowsTask body = new RowsTask(0, width, firstRow + 1, lastRow, out, offset + headLength);
+        RowsTask tail = new RowsTask(0, tailLength, lastRow, lastRow + 1, out, to - tailLength - from + offset);
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(head, body, tail);
+            }
+        });
+        return head.join() + body.join() + tail.join();
+    }
+
+    @Override
+    public long computeRect(int x0, int x1, int y0, int y1, int[] out, int offset) {
+        RowsTask task = new RowsTask(x0, x1, y0, y1, out, offset);
+        return (pool == null) ? task.compute() : pool.invoke(task);
+    }
+
+    /**
+     * Moves to another view of the same width, keeping the threads.
+     */
+    public void setView(double real0, double imag0, double step) {
+        this.real0 = real0;
+        this.imag0 = imag0;
+        this.step = step;
+        this.onGrid = false;
+    }
+
+    /**
+     * Moves to a view of the same width that is aligned to the grid of all
+     * pixels of a step, keeping the threads.
+     *
+     * @param gridX0  The position of the image's left column on the grid: real0 / step.
+     * @param gridY0  The position of the image's bottom row on the grid: imag0 / step.
+     * @param step    The distance between two neighbouring pixels.
+     */
+    public void setGrid(long gridX0, long gridY0, double step) {
+        this.gridX0 = gridX0;
+        this.gridY0 = gridY0;
+        this.real0 = gridX0 * step;
+        this.imag0 = gridY0 * step;
+        this.step = step;
+        this.onGrid = true;
+    }
+
+    private long iterations(long from, long to, int[] out, int offset) {
+        if (onGrid) return Mandelbrot.gridIterations(gridX0, gridY0, step, width, from, to, out, offset);
+        return Mandelbrot.iterations(real0, imag0, step, width, from, to, out, offset);
+    }
+
+    public void shutdown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    // Computes the rows [y0, y1) of the columns [x0, x1), splitting them in halves,
+    // the result is the amount of iterations that were made
+    private class RowsTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final int x0, x1, y0, y1;
+        private final int[] out;
+        private final int offset;
+
+        RowsTask(int x0, int x1, int y0, int y1, int[] out, int offset) {
+            this.x0 = x0;
+            this.x1 = x1;
+            this.y0 = y0;
+            this.y1 = y1;
+            this.out = out;
+            this.offset = offset;
+        }
+
+        @Override
+        protected Long compute() {
+            if (y1 - y0 > 1 && pool != null) {
+                int mid = (y0 + y1) >>> 1;
+                RowsTask lower = new RowsTask(x0, x1, y0, mid, out, offset);
+                RowsTask upper = new RowsTask(x0, x1, mid, y1, out, offset + (mid - y0) * (x1 - x0));
+                invokeAll(lower, upper);
+                return lower.join() + upper.join();
+            }
+            long iters = 0;
+            for (int y = y0, i = offset; y < y1; y++, i += x1 - x0)
+                iters += iterations((long) y * width + x0, (long) y * width + x1, out, i);
+            return iters;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package x74r45.finalTask;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the iterations of already computed tiles, so that re-rendering the
+ * same view or panning at the same zoom only computes the tiles that weren't
+ * seen before. A tile is identified by the distance between the pixels, the
+ * position of its bottom left pixel on the grid of all pixels at that zoom,
+ * its size and MAX_ITER, so the view has to be aligned to that grid
+ * (its bottom left corner must be a whole amount of steps from 0), and the
+ * kernel must compute the coordinates of a pixel from its position on the grid
+ * (see {@link ParallelMandelbrot#setGrid}), so that a tile is the same in
+ * every view. One cache can serve several views with {@link #setView}.
+ * With several processors the cache is kept by the coordinator of a
+ * {@link TileScheduler}, which takes the tiles it has with {@link #lookup}
+ * and adds the ones the workers computed with {@link #store}, so a tile is
+ * found no matter which processor computed it.
+ * There are two tiers:
+ * <ul>
+ *     <li>memory - the tiles of the earlier views of a run, the least recently
+ *                  used tiles are dropped when it's full;</li>
+ *     <li>disk   - optional, one file per tile in a directory, survives between runs.</li>
+ * </ul>
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class TileCache implements TileKernel {
+    private final TileKernel kernel;
+    private final Map<String, int[]> memory;
+    private final Path directory;
+    private final double step;
+    private long gridX0;
+    private long gridY0;
+
+    // Statistics for the report
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+    private long pixelsSaved;
+    private long itersSaved;
+
+    /**
+     * @param kernel        Computes the tiles that aren't in the cache.
+     * @param memoryTiles   The maximum amount of tiles kept in memory.
+     * @param directory     The directory for the disk tier, null to keep the tiles only in memory.
+     * @param step          The distance between two neighbouring pixels.
+     * @param gridX0        The position of the image's left column on the grid: real0 / step.
+     * @param gridY0        The position of the image's bottom row on the grid: imag0 / step.
+     */
+    public TileCache(TileKernel kernel, int memoryTiles, String directory, double step, long gridX0, long gridY0) {
+        this.kernel = kernel;
+        this.memory = new LinkedHashMap<String, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+                return size() > memoryTiles;
+            }
+        };
+        this.directory = (directory == null) ? null : Paths.get(directory);
+        this.step = step;
+        this.gridX0 = gridX0;
+        this.gridY0 = gridY0;
+        try {
+            if (this.directory != null) Files.createDirectories(this.directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Moves to another view of the same step, e.g. when panning.
+     *
+     * @param gridX0  The position of the image's left column on the grid.
+     * @param gridY0  The position of the image's bottom row on the grid.
+     */
+    public void setView(long gridX0, long gridY0) {
+        this.gridX0 = gridX0;
+        this.gridY0 = gridY0;
+    }
+
+    @Override
+    public long computeRect(int x0, int x1, int y0, int y1, int[] out, int offset) {
+        if (lookup(x0, x1, y0, y1, out, offset)) return 0;
+        long iters = kernel.computeRect(x0, x1, y0, y1, out, offset);
+        store(x0, x1, y0, y1, out, offset);
+        return iters;
+    }
+
+    /**
+     * Puts the iterations of the rectangle [x0, x1) x [y0, y1) of the current view
+     * into out row by row, starting from offset, if the cache has them.
+     *
+     * @return  Whether the tile was found, a tile that wasn't is counted as a miss.
+     */
+    public boolean lookup(int x0, int x1, int y0, int y1, int[] out, int offset) {
+        int pixels = (x1 - x0) * (y1 - y0);
+        String key = key(x0, x1, y0, y1);
+        int[] tile = memory.get(key);
+        if (tile != null) memoryHits++;
+        else if ((tile = readTile(key, pixels)) != null) {
+            diskHits++;
+            memory.put(key, tile);
+        }
+        if (tile == null) {
+            misses++;
+            return false;
+        }
+        System.arraycopy(tile, 0, out, offset, pixels);
+        pixelsSaved += pixels;
+        for (int iters : tile) itersSaved += iters;
+        return true;
+    }
+
+    /**
+     * Adds the computed iterations of the rectangle [x0, x1) x [y0, y1) of the
+     * current view, which are in out row by row starting from offset.
+     */
+    public void store(int x0, int x1, int y0, int y1, int[] out, int offset) {
+        int[] tile = new int[(x1 - x0) * (y1 - y0)];
+        System.arraycopy(out, offset, tile, 0, tile.length);
+        String key = key(x0, x1, y0, y1);
+        memory.put(key, tile);
+        writeTile(key, tile);
+    }
+
+    private String key(int x0, int x1, int y0, int y1) {
+        return Long.toHexString(Double.doubleToLongBits(step)) + '_' + (gridX0 + x0) + '_' + (gridY0 + y0)
+                + '_' + (x1 - x0) + 'x' + (y1 - y0) + '_' + Mandelbrot.MAX_ITER;
+    }
+
+    // A tile that can't be read is treated as missing
+    private int[] readTile(String key, int pixels) {
+        if (directory == null) return null;
+        Path file = directory.resolve(key + ".tile");
+        if (!Files.exists(file)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int[] tile = new int[pixels];
+            for (int i = 0; i < pixels; i++) tile[i] = in.readInt();
+            return tile;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Writing to a temporary file first, so that other processors never read half of a tile
+    private void writeTile(String key, int[] tile) {
+        if (directory == null) return;
+        try {
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                for (int iters : tile) out.writeInt(iters);
+            }
+            Files.move(temp, directory.resolve(key + ".tile"), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public long getMemoryHits() {
+        return memoryHits;
+    }
+
+    public long getDiskHits() {
+        return diskHits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getPixelsSaved() {
+        return pixelsSaved;
+    }
+
+    public long getItersSaved() {
+        return itersSaved;
+    }
+}
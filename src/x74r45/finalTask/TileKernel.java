@@ -0,0 +1,19 @@
+package x74r45.finalTask;
+
+/**
+ * Something that can compute the Mandelbrot iterations for a rectangle
+ * of an image. Used by {@link TileScheduler} to compute its tiles.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public interface TileKernel {
+
+    /**
+     * Computes the iterations for the pixels of the rectangle [x0, x1) x [y0, y1)
+     * and puts them into out row by row, starting from offset.
+     *
+     * @return  The amount of iterations that were actually made.
+     */
+    long computeRect(int x0, int x1, int y0, int y1, int[] out, int offset);
+}
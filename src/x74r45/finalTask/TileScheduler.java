@@ -0,0 +1,199 @@
+package x74r45.finalTask;
+
+import mpi.MPI;
+import mpi.MPIException;
+import mpi.Status;
+
+/**
+ * Splits the image into square tiles and hands them out to the processors
+ * on demand. Rank 0 acts as a coordinator: every worker asks it for a tile,
+ * computes it and sends the iterations back together with the request for
+ * the next one. This way the processors that got tiles inside the set
+ * don't hold up the others, as they would with a static split.
+ * The tiles are computed by a {@link TileKernel}. With a {@link TileCache}
+ * the coordinator takes the tiles the cache has from it and hands out only
+ * the others, whose results it adds to the cache.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class TileScheduler {
+    private static final int TAG_RESULT = 75;
+    private static final int TAG_TILE = 76;
+    private static final int NO_TILE = -1;
+
+    private final int imageSize;
+    private final int tileSize;
+    private final int offsetX;
+    private final int offsetY;
+    private final int tilesPerRow;
+    private final int tileCount;
+    private final TileKernel kernel;
+    private TileCache cache;
+
+    // Statistics for the load report
+    private int tilesDone;
+    private int pixelsDone;
+    private long itersDone;
+
+    /**
+     * @param imageSize  The amount of pixels in a row and a column of the image.
+     * @param tileSize   The side of a tile in pixels.
+     * @param kernel     Computes the iterations of the tiles on this processor.
+     */
+    public TileScheduler(int imageSize, int tileSize, TileKernel kernel) {
+        this(imageSize, tileSize, 0, 0, kernel);
+    }
+
+    /**
+     * Same as {@link #TileScheduler(int, int, TileKernel)}, but the grid of tiles
+     * starts offsetX pixels to the left and offsetY pixels below the image,
+     * so the tiles on the edges are cut.
+     */
+    public TileScheduler(int imageSize, int tileSize, int offsetX, int offsetY, TileKernel kernel) {
+        this.imageSize = imageSize;
+        this.tileSize = tileSize;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.tilesPerRow = (offsetX + imageSize + tileSize - 1) / tileSize;
+        this.tileCount = tilesPerRow * ((offsetY + imageSize + tileSize - 1) / tileSize);
+        this.kernel = kernel;
+    }
+
+    /**
+     * Lets the coordinator take the tiles from a cache, which must be set to
+     * the view of this scheduler. Only the coordinator uses it.
+     */
+    public void setCache(TileCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Hands out the tiles to the other processors and collects the results.
+     * If there are no other processors, computes all the tiles itself.
+     *
+     * @param pixelIters     The array to put the iterations into, row by row.
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public void coordinate(int[] pixelIters) throws MPIException {
+        int np = MPI.COMM_WORLD.getSize();
+        int[] tileIters = new int[tileSize * tileSize + 1];
+        if (np == 1) {
+            for (int tile = 0; tile < tileCount; tile++) {
+                if (!fromCache(tile, tileIters)) {
+                    computeTile(tile, tileIters);
+                    toCache(tileIters);
+                }
+                copyTile(tile, tileIters, pixelIters);
+            }
+            return;
+        }
+
+        int nextTile = 0;
+        int activeWorkers = np - 1;
+        while (activeWorkers > 0) {
+            // Each message holds the index of the finished tile (or NO_TILE) and its iterations
+            Status status = MPI.COMM_WORLD.recv(tileIters, tileIters.length, MPI.INT, MPI.ANY_SOURCE, TAG_RESULT);
+            if (tileIters[0] != NO_TILE) {
+                copyTile(tileIters[0], tileIters, pixelIters);
+                toCache(tileIters);
+            }
+
+            // The tiles the cache has are put in place right away
+            for (; nextTile < tileCount && fromCache(nextTile, tileIters); nextTile++)
+                copyTile(nextTile, tileIters, pixelIters);
+            int worker = status.getSource();
+            if (nextTile < tileCount) {
+                MPI.COMM_WORLD.send(new int[]{nextTile++}, 1, MPI.INT, worker, TAG_TILE);
+            } else {
+                MPI.COMM_WORLD.send(new int[]{NO_TILE}, 1, MPI.INT, worker, TAG_TILE);
+                activeWorkers--;
+            }
+        }
+    }
+
+    /**
+     * Asks the coordinator for tiles and computes them until there are none left.
+     *
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public void work() throws MPIException {
+        int[] tileIters = new int[tileSize * tileSize + 1];
+        int[] tile = {NO_TILE};
+        tileIters[0] = NO_TILE;
+        while (true) {
+            MPI.COMM_WORLD.send(tileIters, tileIters.length, MPI.INT, 0, TAG_RESULT);
+            MPI.COMM_WORLD.recv(tile, 1, MPI.INT, 0, TAG_TILE);
+            if (tile[0] == NO_TILE) break;
+            computeTile(tile[0], tileIters);
+        }
+    }
+
+    // Computing the iterations of a tile row by row, starting from tileIters[1]
+    private void computeTile(int tile, int[] tileIters) {
+        int x0 = tileX0(tile), x1 = tileX1(tile);
+        int y0 = tileY0(tile), y1 = tileY1(tile);
+
+        tileIters[0] = tile;
+        itersDone += kernel.computeRect(x0, x1, y0, y1, tileIters, 1);
+        tilesDone++;
+        pixelsDone += (x1 - x0) * (y1 - y0);
+    }
+
+    // Taking the iterations of a tile from the cache into tileIters like computeTile does
+    private boolean fromCache(int tile, int[] tileIters) {
+        if (cache == null || !cache.lookup(tileX0(tile), tileX1(tile), tileY0(tile), tileY1(tile), tileIters, 1))
+            return false;
+        tileIters[0] = tile;
+        return true;
+    }
+
+    private void toCache(int[] tileIters) {
+        int tile = tileIters[0];
+        if (cache != null) cache.store(tileX0(tile), tileX1(tile), tileY0(tile), tileY1(tile), tileIters, 1);
+    }
+
+    // Putting the iterations of a tile to their places in the image
+    private void copyTile(int tile, int[] tileIters, int[] pixelIters) {
+        int x0 = tileX0(tile);
+        int width = tileX1(tile) - x0;
+        int y1 = tileY1(tile);
+
+        int i = 1;
+        for (int y = tileY0(tile); y < y1; y++, i += width)
+            System.arraycopy(tileIters, i, pixelIters, y * imageSize + x0, width);
+    }
+
+    // The bounds of a tile inside the image
+    private int tileX0(int tile) {
+        return Math.max((tile % tilesPerRow) * tileSize - offsetX, 0);
+    }
+
+    private int tileX1(int tile) {
+        return Math.min((tile % tilesPerRow + 1) * tileSize - offsetX, imageSize);
+    }
+
+    private int tileY0(int tile) {
+        return Math.max((tile / tilesPerRow) * tileSize - offsetY, 0);
+    }
+
+    private int tileY1(int tile) {
+        return Math.min((tile / tilesPerRow + 1) * tileSize - offsetY, imageSize);
+    }
+
+    public int getTileCount() {
+        return tileCount;
+    }
+
+    public int getTilesDone() {
+        return tilesDone;
+    }
+
+    public int getPixelsDone() {
+        return pixelsDone;
+    }
+
+    public long getItersDone() {
+        return itersDone;
+    }
+}
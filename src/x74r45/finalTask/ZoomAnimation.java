@@ -0,0 +1,147 @@
+package x74r45.finalTask;
+
+import mpi.MPI;
+import mpi.MPIException;
+import mpi.Request;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * Renders a sequence of frames zooming from one view into another in a single run.
+ * Every processor computes its part of a frame while the previous frame is still
+ * being gathered with a non-blocking iGatherv, so the gathering and the writing
+ * of frame N happen behind the computing of frame N+1. The frames are written
+ * by the root with {@link ImageWriter}.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class ZoomAnimation {
+    private final int imageSize;
+    private final int frames;
+    private final int threads;
+    private final double[] start;
+    private final double[] target;
+
+    /**
+     * @param imageSize  The width and height of the frames in pixels.
+     * @param frames     The amount of frames, including the first and the last views.
+     * @param threads    The amount of threads each processor uses.
+     * @param start      The first view: {real0, imag0, size}.
+     * @param target     The last view: {real0, imag0, size}.
+     */
+    public ZoomAnimation(int imageSize, int frames, int threads, double[] start, double[] target) {
+        if (frames < 1) throw new IllegalArgumentException("There must be at least one frame.");
+        this.imageSize = imageSize;
+        this.frames = frames;
+        this.threads = threads;
+        this.start = start;
+        this.target = target;
+    }
+
+    /**
+     * Renders all the frames. Must be called by every processor.
+     *
+     * @param output         The file name of the frames, the number of a frame is
+     *                       inserted before the extension.
+     * @param format         The format of the frames, see {@link ImageWriter}.
+     * @throws MPIException  If an error occurred during MPI communications.
+     * @throws IOException   If a frame couldn't be written.
+     */
+    public void render(String output, String format) throws MPIException, IOException {
+        int rank = MPI.COMM_WORLD.getRank();
+        int np = MPI.COMM_WORLD.getSize();
+        int pixelCount = imageSize * imageSize;
+
+        // Calculating displacements
+        float elemsPerProcessor = ((float) pixelCount) / np;
+        int[] displs = IntStream.range(0, np).map(x -> Math.round(x * elemsPerProcessor)).toArray();
+        int[] recvcount = IntStream.range(0, np)
+                .map(x -> (x == np-1) ? pixelCount - displs[x] : displs[x + 1] - displs[x]).toArray();
+
+        // Two sets of buffers: one is being gathered while the other one is being computed
+        int[] myRes = new int[recvcount[rank]];
+        IntBuffer[] sendBufs = {MPI.newIntBuffer(myRes.length), MPI.newIntBuffer(myRes.length)};
+        IntBuffer[] recvBufs = (rank == 0)
+                ? new IntBuffer[]{MPI.newIntBuffer(pixelCount), MPI.newIntBuffer(pixelCount)}
+                : new IntBuffer[]{MPI.newIntBuffer(1), MPI.newIntBuffer(1)};
+
+        ParallelMandelbrot kernel = new ParallelMandelbrot(threads, 0, 0, 0, imageSize);
+        Request gather = null;
+        double totalCompute = 0, totalWait = 0, totalWrite = 0;
+        MPI.COMM_WORLD.barrier();
+        double startTime = MPI.wtime();
+        for (int frame = 0; frame <= frames; frame++) {
+            double computeTime = 0;
+            if (frame < frames) {
+                double[] view = view(frame);
+                double t = MPI.wtime();
+                kernel.setView(view[0], view[1], view[2] / imageSize);
+                kernel.computeRange(displs[rank], displs[rank] + recvcount[rank], myRes, 0);
+                sendBufs[frame % 2].clear();
+                sendBufs[frame % 2].put(myRes);
+                computeTime = MPI.wtime() - t;
+            }
+
+            // Finishing the previous frame: whatever is left of its gathering is not hidden
+            double waitTime = 0, writeTime = 0;
+            if (gather != null) {
+                double t = MPI.wtime();
+                gather.waitFor();
+                waitTime = MPI.wtime() - t;
+                if (rank == 0) {
+                    t = MPI.wtime();
+                    ImageWriter.write(frameName(output, frame - 1), format, imageSize, imageSize, recvBufs[(frame - 1) % 2]);
+                    writeTime = MPI.wtime() - t;
+                }
+            }
+
+            if (frame < frames)
+                gather = MPI.COMM_WORLD.iGatherv(sendBufs[frame % 2], myRes.length, MPI.INT,
+                        recvBufs[frame % 2], recvcount, displs, MPI.INT, 0);
+
+            if (rank == 0) {
+                if (frame < frames) System.out.printf("Frame %d: compute = %.4fs", frame, computeTime);
+                else System.out.print("Finishing");
+                if (frame > 0) System.out.printf("; frame %d: gather wait = %.4fs, write = %.4fs",
+                        frame - 1, waitTime, writeTime);
+                System.out.println();
+            }
+            totalCompute += computeTime;
+            totalWait += waitTime;
+            totalWrite += writeTime;
+        }
+        double totalTime = MPI.wtime() - startTime;
+        kernel.shutdown();
+
+        if (rank == 0) {
+            System.out.printf("Total: %.4fs for %d frames; compute = %.4fs, exposed gather wait = %.4fs, write = %.4fs%n",
+                    totalTime, frames, totalCompute, totalWait, totalWrite);
+            System.out.println("Only the gather wait is communication that wasn't hidden behind computing.");
+        }
+    }
+
+    /**
+     * Returns the view of a frame: {real0, imag0, size}. The size changes
+     * geometrically, so every frame zooms in by the same factor, and the
+     * center moves proportionally to how much the size has changed.
+     */
+    public double[] view(int frame) {
+        double t = (frames == 1) ? 0 : ((double) frame) / (frames - 1);
+        double size = start[2] * Math.pow(target[2] / start[2], t);
+        // How far the center has moved to the target's center
+        double progress = (start[2] == target[2]) ? t : (start[2] - size) / (start[2] - target[2]);
+        double centerReal = start[0] + start[2] / 2 + progress * (target[0] + target[2] / 2 - start[0] - start[2] / 2);
+        double centerImag = start[1] + start[2] / 2 + progress * (target[1] + target[2] / 2 - start[1] - start[2] / 2);
+        return new double[]{centerReal - size / 2, centerImag - size / 2, size};
+    }
+
+    // mandelbrot.ppm -> mandelbrot_0007.ppm
+    private static String frameName(String output, int frame) {
+        int dot = output.lastIndexOf('.');
+        if (dot <= output.lastIndexOf('/')) dot = output.length();
+        return output.substring(0, dot) + String.format("_%04d", frame) + output.substring(dot);
+    }
+}
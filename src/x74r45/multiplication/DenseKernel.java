@@ -0,0 +1,187 @@
+package x74r45.multiplication;
+
+import com.mathpar.matrix.MatrixS;
+import com.mathpar.number.Element;
+import com.mathpar.number.NumberR64;
+import com.mathpar.number.NumberZp32;
+import com.mathpar.number.Ring;
+import x74r45.Practical5_2;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Multiplies small matrices on plain double arrays, which is where
+ * Strassen's recursion stops: below a few dozen rows the additions, splits
+ * and joins of MatrixS cost far more than the multiplication itself.
+ * The matrices are stored row by row and multiplied block by block, so that
+ * the blocks of all three matrices stay in the cache, and two rows of the
+ * result are computed at once, so that every loaded element of B is used twice.
+ * The values are converted with {@link Element#doubleValue()} and the result
+ * consists of {@link NumberR64}, so the kernel is meant for matrices over R64,
+ * like the ones in Practical5_2. Matrices over Zp32 go to {@link ModularKernel}.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class DenseKernel {
+    // The side of the blocks, three 64x64 blocks of doubles take 96 KB
+    private static final int BLOCK = 64;
+
+    /**
+     * Multiplies two MatrixS with the dense kernel.
+     *
+     * @param A     The first matrix, m x k.
+     * @param B     The second matrix, k x n.
+     * @return      The product, m x n.
+     */
+    public static MatrixS multiply(MatrixS A, MatrixS B) {
+        int m = A.size, k = A.colNumb, n = B.colNumb;
+        double[] c = new double[m * n];
+        multiply(toDense(A, m, k), 0, k, toDense(B, k, n), 0, n, c, 0, n, m, k, n);
+        return fromDense(c, m, n);
+    }
+
+    /**
+     * Multiplies two MatrixS with the kernel of their ring: {@link ModularKernel}
+     * over Zp32 and the dense kernel of doubles otherwise.
+     */
+    public static MatrixS multiply(MatrixS A, MatrixS B, Ring ring) {
+        return ModularKernel.isModular(ring) ? ModularKernel.multiply(A, B, ring) : multiply(A, B);
+    }
+
+    /**
+     * Adds the product of a and b to c, all of them are n x n and stored row by row.
+     */
+    public static void multiply(double[] a, double[] b, double[] c, int n) {
+        multiply(a, 0, n, b, 0, n, c, 0, n, n, n, n);
+    }
+
+    /**
+     * Adds the product of an m x k block of a and a k x n block of b to an m x n block of c.
+     * A block starts at an offset of its array and its rows are stride elements apart.
+     */
+    public static void multiply(double[] a, int aOffset, int aStride, double[] b, int bOffset, int bStride,
+                                double[] c, int cOffset, int cStride, int m, int k, int n) {
+        for (int i0 = 0; i0 < m; i0 += BLOCK) {
+            int i1 = Math.min(i0 + BLOCK, m);
+            for (int k0 = 0; k0 < k; k0 += BLOCK) {
+                int k1 = Math.min(k0 + BLOCK, k);
+                for (int j0 = 0; j0 < n; j0 += BLOCK) {
+                    int j1 = Math.min(j0 + BLOCK, n);
+                    multiplyBlock(a, aOffset, aStride, b, bOffset, bStride, c, cOffset, cStride, i0, i1, k0, k1, j0, j1);
+                }
+            }
+        }
+    }
+
+    private static void multiplyBlock(double[] a, int aOffset, int aStride, double[] b, int bOffset, int bStride,
+                                      double[] c, int cOffset, int cStride, int i0, int i1, int k0, int k1, int j0, int j1) {
+        int i = i0;
+        for (; i + 1 < i1; i += 2) {
+            int rowA0 = aOffset + i * aStride, rowA1 = rowA0 + aStride;
+            int row0 = cOffset + i * cStride, row1 = row0 + cStride;
+            for (int k = k0; k < k1; k++) {
+                double a0 = a[rowA0 + k], a1 = a[rowA1 + k];
+                int rowB = bOffset + k * bStride;
+                for (int j = j0; j < j1; j++) {
+                    double bkj = b[rowB + j];
+                    c[row0 + j] += a0 * bkj;
+                    c[row1 + j] += a1 * bkj;
+                }
+            }
+        }
+        // The last row of an odd block
+        if (i < i1) {
+            int rowA = aOffset + i * aStride;
+            int row = cOffset + i * cStride;
+            for (int k = k0; k < k1; k++) {
+                double aik = a[rowA + k];
+                int rowB = bOffset + k * bStride;
+                for (int j = j0; j < j1; j++) c[row + j] += aik * b[rowB + j];
+            }
+        }
+    }
+
+    /**
+     * Copies a MatrixS into an n x n array row by row.
+     */
+    public static double[] toDense(MatrixS A, int n) {
+        return toDense(A, n, n);
+    }
+
+    /**
+     * Copies a MatrixS into a rows x cols array row by row.
+     */
+    public static double[] toDense(MatrixS A, int rows, int cols) {
+        double[] dense = new double[rows * cols];
+        for (int i = 0; i < A.M.length && i < rows; i++)
+            for (int j = 0; j < A.M[i].length; j++)
+                dense[i * cols + A.col[i][j]] = A.M[i][j].doubleValue();
+        return dense;
+    }
+
+    /**
+     * Builds an n x n MatrixS of NumberR64 from an array, the zeros are not stored.
+     */
+    public static MatrixS fromDense(double[] dense, int n) {
+        return fromDense(dense, n, n);
+    }
+
+    /**
+     * Builds a rows x cols MatrixS of NumberR64 from an array, the zeros are not stored.
+     */
+    public static MatrixS fromDense(double[] dense, int rows, int cols) {
+        Element[][] M = new Element[rows][];
+        int[][] col = new int[rows][];
+        int[] columns = new int[cols];
+        for (int i = 0; i < rows; i++) {
+            int count = 0;
+            for (int j = 0; j < cols; j++)
+                if (dense[i * cols + j] != 0) columns[count++] = j;
+            M[i] = new Element[count];
+            col[i] = Arrays.copyOf(columns, count);
+            for (int j = 0; j < count; j++) M[i][j] = new NumberR64(dense[i * cols + columns[j]]);
+        }
+        return new MatrixS(rows, cols, M, col);
+    }
+
+    /**
+     * Finds the size below which Strassen's recursion should switch to the dense kernel
+     * by timing both on random matrices of growing sizes: the cutoff is the first size
+     * at which one level of Strassen with dense products is faster than the dense kernel.
+     *
+     * @param maxSize  The largest size to try, a power of 2.
+     * @param ring     The ring of the matrices.
+     * @return         The cutoff, maxSize if Strassen was never faster.
+     */
+    public static int tuneCutoff(int maxSize, Ring ring) {
+        Random rnd = new Random(74);
+        for (int n = 32; n < maxSize; n *= 2) {
+            MatrixS A = new MatrixS(n, n, 10000, new int[]{5, 5}, rnd, NumberZp32.ONE, ring);
+            MatrixS B = new MatrixS(n, n, 10000, new int[]{5, 5}, rnd, NumberZp32.ONE, ring);
+            if (bestTime(A, B, ring, false) > bestTime(A, B, ring, true)) return n / 2;
+        }
+        return maxSize;
+    }
+
+    // The best of a few runs, so that the JIT and the GC don't decide the cutoff
+    private static long bestTime(MatrixS A, MatrixS B, Ring ring, boolean strassen) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            if (strassen) {
+                MatrixS[] AA = A.split();
+                MatrixS[] BB = B.split();
+                MatrixS[] MM = new MatrixS[7];
+                for (int k = 0; k < 7; k++) {
+                    MatrixS[] operands = Practical5_2.operands(k, AA, BB, ring);
+                    MM[k] = multiply(operands[0], operands[1], ring);
+                }
+                Practical5_2.combine(MM, ring);
+            } else multiply(A, B, ring);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
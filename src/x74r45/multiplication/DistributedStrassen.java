@@ -0,0 +1,234 @@
+package x74r45.multiplication;
+
+import com.mathpar.matrix.MatrixS;
+import com.mathpar.number.Ring;
+import mpi.MPI;
+import mpi.MPIException;
+import x74r45.Practical5_2;
+
+/**
+ * Multiplies matrices with Strassen's algorithm on any amount of processors.
+ * The processors form a tree: the leader of a group splits the matrices,
+ * spreads the seven products over the subgroups and combines the products
+ * it gets back from the leaders of the subgroups. A group of 7 or more
+ * processors is split into seven subgroups of almost equal sizes, each of
+ * which does the same with its product, so 7^k processors get one product
+ * of the k-th level each. A group of less than 7 processors gives every
+ * processor a few products, which it multiplies locally with {@link ParallelStrassen}.
+ * For example, with 32 processors the first level gives the products to
+ * groups of 5, 5, 5, 5, 4, 4 and 4 processors, and on the second level
+ * every processor of those groups gets one or two products.
+ * The matrices may have any sizes: on a level with an odd amount of rows or
+ * columns the leader peels them and multiplies them itself, see {@link MatrixBlocks}.
+ * The matrices are sent with {@link MatrixTransport}. A leader sends the operands
+ * without blocking while it builds the next ones, calculates its own products
+ * while they are on the way and adds the products of the subgroups to the result
+ * in the order they arrive, so a slow subgroup doesn't hold up the others.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class DistributedStrassen {
+    private static final int PRODUCTS = 7;
+
+    private final Ring ring;
+    private final ParallelStrassen local;
+    private final MatrixTransport transport;
+    private final boolean overlap;
+    private final int rank;
+    private final int np;
+    private final double[] times = new double[4];
+    private long operandBytes;
+    private long resultBytes;
+
+    /**
+     * @param ring           The ring of the matrices.
+     * @param local          Multiplies the products that are left to a single processor.
+     * @param overlap        Whether to send and receive without blocking, otherwise every
+     *                       send waits for its receiver and the products are received in
+     *                       the order of the processors.
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public DistributedStrassen(Ring ring, ParallelStrassen local, boolean overlap) throws MPIException {
+        this.ring = ring;
+        this.local = local;
+        this.transport = new MatrixTransport(ring);
+        this.overlap = overlap;
+        this.rank = MPI.COMM_WORLD.getRank();
+        this.np = MPI.COMM_WORLD.getSize();
+    }
+
+    /**
+     * Multiplies two matrices. Must be called by every processor.
+     *
+     * @param A              The first matrix, m x k, only used on the root.
+     * @param B              The second matrix, k x n, only used on the root.
+     * @return               The product on the root, null on the other processors.
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public MatrixS multiply(MatrixS A, MatrixS B) throws MPIException {
+        // Every processor has to know the sizes to follow the tree
+        int[] sizes = new int[3];
+        if (rank == 0) {
+            if (A.colNumb != B.size) throw new IllegalArgumentException("Matrices have incompatible sizes.");
+            sizes[0] = A.size;
+            sizes[1] = A.colNumb;
+            sizes[2] = B.colNumb;
+        }
+        MPI.COMM_WORLD.bcast(sizes, 3, MPI.INT, 0);
+
+        if (rank == 0) return lead(0, np, A, B);
+        work(sizes);
+        return null;
+    }
+
+    // Multiplying A and B with the processors [first, first + count), called by the processor first
+    private MatrixS lead(int first, int count, MatrixS A, MatrixS B) throws MPIException {
+        if (count == 1 || Math.min(A.size, Math.min(A.colNumb, B.colNumb)) < 2) return local.multiply(A, B);
+        // Peeling the odd row and column, the leader multiplies them itself
+        if (A.size % 2 != 0 || A.colNumb % 2 != 0 || B.colNumb % 2 != 0)
+            return MatrixBlocks.completePeeled(A, B,
+                    lead(first, count, MatrixBlocks.evenPart(A), MatrixBlocks.evenPart(B)), ring);
+
+        boolean top = count == np;
+        double t = MPI.wtime();
+        int[][] groups = subgroups(count);
+        MatrixS[] AA = MatrixBlocks.split(A);
+        MatrixS[] BB = MatrixBlocks.split(B);
+        MatrixS[] CC = new MatrixS[4];
+
+        // Sending the products of the other subgroups to their leaders,
+        // the next operands are built while the previous ones are on the way
+        MatrixTransport.Pending[] sends = new MatrixTransport.Pending[2 * PRODUCTS];
+        MatrixTransport.Pending[] receives = new MatrixTransport.Pending[PRODUCTS];
+        long sent = transport.getBytesSent();
+        for (int k = 0; k < PRODUCTS; k++) {
+            int group = owner(k, groups);
+            if (group == 0) continue;
+            MatrixS[] operands = Practical5_2.operands(k, AA, BB, ring);
+            int dest = first + groups[group][0];
+            if (overlap) {
+                sends[2*k] = transport.iSend(operands[0], dest, k);
+                sends[2*k + 1] = transport.iSend(operands[1], dest, k);
+                receives[k] = transport.iRecv(dest, k);
+            } else {
+                transport.send(operands[0], dest, k);
+                transport.send(operands[1], dest, k);
+            }
+        }
+        operandBytes += transport.getBytesSent() - sent;
+        if (top) times[0] = MPI.wtime() - t;
+
+        // Calculating the products of the own subgroup while the others are being sent
+        t = MPI.wtime();
+        double combining = 0;
+        for (int k = 0; k < PRODUCTS; k++) {
+            if (owner(k, groups) != 0) continue;
+            MatrixS[] operands = Practical5_2.operands(k, AA, BB, ring);
+            MatrixS M = lead(first, groups[0][1], operands[0], operands[1]);
+            double c = MPI.wtime();
+            Practical5_2.accumulate(CC, k, M, ring);
+            combining += MPI.wtime() - c;
+        }
+        if (top) times[1] = MPI.wtime() - t - combining;
+
+        // Adding the other products as they arrive, or in order of the processors when blocking
+        t = MPI.wtime();
+        double combiningOwn = combining;
+        if (overlap) {
+            for (int k; (k = MatrixTransport.waitAny(receives)) >= 0; ) {
+                double c = MPI.wtime();
+                Practical5_2.accumulate(CC, k, receives[k].getMatrix(), ring);
+                combining += MPI.wtime() - c;
+            }
+            MatrixTransport.waitAll(sends);
+        } else {
+            for (int k = 0; k < PRODUCTS; k++) {
+                int group = owner(k, groups);
+                if (group == 0) continue;
+                MatrixS M = transport.recv(first + groups[group][0], k);
+                double c = MPI.wtime();
+                Practical5_2.accumulate(CC, k, M, ring);
+                combining += MPI.wtime() - c;
+            }
+        }
+        double waiting = MPI.wtime() - t - (combining - combiningOwn);
+        double c = MPI.wtime();
+        MatrixS C = MatrixBlocks.join(CC);
+        combining += MPI.wtime() - c;
+        if (top) {
+            times[2] = waiting;
+            times[3] = combining;
+        }
+        return C;
+    }
+
+    // Following the tree down to the group this processor leads, sizes are {m, k, n} of the product on this level
+    private void work(int[] sizes) throws MPIException {
+        int first = 0, count = np;
+        while (count > 1 && Math.min(sizes[0], Math.min(sizes[1], sizes[2])) >= 2) {
+            int[][] groups = subgroups(count);
+            int group = 0;
+            while (rank >= first + groups[group][0] + groups[group][1]) group++;
+            int leader = first + groups[group][0];
+
+            if (group != 0 && rank == leader) {
+                // Receiving all the products first, so that the parent isn't blocked while they are calculated
+                MatrixS[][] operands = new MatrixS[PRODUCTS][];
+                for (int k = 0; k < PRODUCTS; k++) {
+                    if (owner(k, groups) != group) continue;
+                    operands[k] = new MatrixS[]{transport.recv(first, k), transport.recv(first, k)};
+                }
+                // A result is sent while the next one is calculated
+                MatrixTransport.Pending[] sends = new MatrixTransport.Pending[PRODUCTS];
+                for (int k = 0; k < PRODUCTS; k++) {
+                    if (operands[k] == null) continue;
+                    MatrixS M = lead(leader, groups[group][1], operands[k][0], operands[k][1]);
+                    long sent = transport.getBytesSent();
+                    if (overlap) sends[k] = transport.iSend(M, first, k);
+                    else transport.send(M, first, k);
+                    resultBytes += transport.getBytesSent() - sent;
+                }
+                MatrixTransport.waitAll(sends);
+                return;
+            }
+            first = leader;
+            count = groups[group][1];
+            for (int i = 0; i < 3; i++) sizes[i] = (sizes[i] & ~1) / 2;
+        }
+    }
+
+    /**
+     * Returns the times of the root's first level of the last multiplication in seconds:
+     * {building and sending the operands, calculating the own products,
+     * waiting for the other products, adding the products together}.
+     * Together they are the critical path of the multiplication.
+     */
+    public double[] getTimes() {
+        return times.clone();
+    }
+
+    /**
+     * Returns the bytes this processor has sent so far: {operands, products}.
+     */
+    public long[] getBytesSent() {
+        return new long[]{operandBytes, resultBytes};
+    }
+
+    // The subgroups of a group of count processors as {offset, count}
+    private static int[][] subgroups(int count) {
+        int amount = Math.min(count, PRODUCTS);
+        int[][] groups = new int[amount][2];
+        for (int g = 0, offset = 0; g < amount; g++) {
+            groups[g][0] = offset;
+            groups[g][1] = count / amount + ((g < count % amount) ? 1 : 0);
+            offset += groups[g][1];
+        }
+        return groups;
+    }
+
+    // The subgroup that calculates the k-th product
+    private static int owner(int k, int[][] groups) {
+        return k % groups.length;
+    }
+}
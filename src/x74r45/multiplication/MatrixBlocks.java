@@ -0,0 +1,126 @@
+package x74r45.multiplication;
+
+import com.mathpar.matrix.MatrixS;
+import com.mathpar.number.Element;
+import com.mathpar.number.Ring;
+
+import java.util.Arrays;
+
+/**
+ * Cuts MatrixS of any shape into blocks and puts them back together, which
+ * lets Strassen's algorithm multiply an m x k matrix by a k x n one without
+ * padding them to a power of 2. A level whose m, k or n is odd is handled by
+ * dynamic peeling: the product of the even parts
+ * <pre>
+ *     A = | A11 a12 |   B = | B11 b12 |
+ *         | a21 a22 |       | b21 b22 |
+ * </pre>
+ * (A11 and B11 have even sides, the rest are single rows or columns) goes on
+ * with Strassen's algorithm and {@link #completePeeled} adds the thin products
+ * of the peeled row and column with the dense kernel of the ring:
+ * <pre>
+ *     C11 = A11 B11 + a12 b21
+ *     C12 = [A11 a12] [b12; b22]
+ *     C21 = [a21 a22] B
+ * </pre>
+ * The blocks share the elements of the original matrix, so they must not be changed.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class MatrixBlocks {
+
+    /**
+     * Returns the rows [r0, r1) and the columns [c0, c1) of a matrix.
+     */
+    public static MatrixS block(MatrixS A, int r0, int r1, int c0, int c1) {
+        Element[][] M = new Element[r1 - r0][];
+        int[][] col = new int[r1 - r0][];
+        for (int i = r0; i < r1; i++) {
+            if (i >= A.M.length) {
+                M[i - r0] = new Element[0];
+                col[i - r0] = new int[0];
+                continue;
+            }
+            int count = 0;
+            for (int column : A.col[i]) if (column >= c0 && column < c1) count++;
+            M[i - r0] = new Element[count];
+            col[i - r0] = new int[count];
+            for (int j = 0, n = 0; j < A.col[i].length; j++) {
+                if (A.col[i][j] < c0 || A.col[i][j] >= c1) continue;
+                M[i - r0][n] = A.M[i][j];
+                col[i - r0][n++] = A.col[i][j] - c0;
+            }
+        }
+        return new MatrixS(r1 - r0, c1 - c0, M, col);
+    }
+
+    /**
+     * Splits a matrix with an even amount of rows and columns into four equal quadrants:
+     * {top left, top right, bottom left, bottom right}.
+     */
+    public static MatrixS[] split(MatrixS A) {
+        int h = A.size / 2, w = A.colNumb / 2;
+        return new MatrixS[]{block(A, 0, h, 0, w), block(A, 0, h, w, A.colNumb),
+                block(A, h, A.size, 0, w), block(A, h, A.size, w, A.colNumb)};
+    }
+
+    /**
+     * Puts four blocks together: {top left, top right, bottom left, bottom right}.
+     * The blocks of a row must have the same amount of rows and the blocks of
+     * a column the same amount of columns, any of them may be empty.
+     */
+    public static MatrixS join(MatrixS[] blocks) {
+        int top = blocks[0].size, left = blocks[0].colNumb;
+        int rows = top + blocks[2].size, cols = left + blocks[1].colNumb;
+        Element[][] M = new Element[rows][];
+        int[][] col = new int[rows][];
+        for (int i = 0; i < rows; i++) {
+            MatrixS first = (i < top) ? blocks[0] : blocks[2], second = (i < top) ? blocks[1] : blocks[3];
+            int row = (i < top) ? i : i - top;
+            Element[] M1 = row(first.M, row), M2 = row(second.M, row);
+            int[] col1 = row(first.col, row), col2 = row(second.col, row);
+            M[i] = Arrays.copyOf(M1, M1.length + M2.length);
+            System.arraycopy(M2, 0, M[i], M1.length, M2.length);
+            col[i] = Arrays.copyOf(col1, col1.length + col2.length);
+            for (int j = 0; j < col2.length; j++) col[i][col1.length + j] = col2[j] + left;
+        }
+        return new MatrixS(rows, cols, M, col);
+    }
+
+    /**
+     * Returns the part of a matrix with an even amount of rows and columns
+     * that is left after peeling its last row and column if they are odd.
+     */
+    public static MatrixS evenPart(MatrixS A) {
+        if (A.size % 2 == 0 && A.colNumb % 2 == 0) return A;
+        return block(A, 0, A.size & ~1, 0, A.colNumb & ~1);
+    }
+
+    /**
+     * Completes the product of A and B from the product of their even parts
+     * by adding the products of the peeled rows and columns.
+     *
+     * @param A     The first matrix, m x k.
+     * @param B     The second matrix, k x n.
+     * @param C11   The product of {@link #evenPart} of A and B.
+     * @param ring  The ring of the matrices.
+     * @return      The product of A and B.
+     */
+    public static MatrixS completePeeled(MatrixS A, MatrixS B, MatrixS C11, Ring ring) {
+        int m = A.size, k = A.colNumb, n = B.colNumb;
+        int m0 = m & ~1, k0 = k & ~1, n0 = n & ~1;
+        if (k0 < k) C11 = C11.add(DenseKernel.multiply(block(A, 0, m0, k0, k), block(B, k0, k, 0, n0), ring), ring);
+        MatrixS C12 = DenseKernel.multiply(block(A, 0, m0, 0, k), block(B, 0, k, n0, n), ring);
+        MatrixS C2 = DenseKernel.multiply(block(A, m0, m, 0, k), B, ring);
+        return join(new MatrixS[]{C11, C12, block(C2, 0, m - m0, 0, n0), block(C2, 0, m - m0, n0, n)});
+    }
+
+    private static Element[] row(Element[][] rows, int i) {
+        return (i < rows.length) ? rows[i] : new Element[0];
+    }
+
+    private static int[] row(int[][] rows, int i) {
+        return (i < rows.length) ? rows[i] : new int[0];
+    }
+}
@@ -0,0 +1,387 @@
+package x74r45.multiplication;
+
+import com.mathpar.matrix.MatrixS;
+import com.mathpar.number.Element;
+import com.mathpar.number.NumberR64;
+import com.mathpar.number.NumberZp32;
+import com.mathpar.number.Ring;
+import mpi.MPI;
+import mpi.MPIException;
+import mpi.Request;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Sends MatrixS between processors as plain numbers instead of serialized
+ * objects. A matrix goes as a header of 4 ints {layout, size, colNumb, nonzeros}
+ * followed by its values in one of the layouts:
+ * <ul>
+ *     <li>dense  - all size * colNumb values row by row as doubles;</li>
+ *     <li>sparse - the amount of values in every row and their columns as ints,
+ *                  then the values as doubles.</li>
+ * </ul>
+ * The layout is chosen by which one takes fewer bytes. The buffers are direct,
+ * so MPI reads and writes them without copying. The blocking calls keep their
+ * buffers between the calls, the non-blocking ones give every matrix its own.
+ * The values are converted with {@link Element#doubleValue()} and received as
+ * {@link NumberR64}, like in {@link DenseKernel}. Over Zp32 the values are
+ * ints and are received as {@link NumberZp32}, like in {@link ModularKernel}:
+ * the dense layout is then sent as ints and the sparse one has the values
+ * after the columns, so the matrix goes in half the bytes.
+ * Not thread-safe: one transport must only be used by one thread at a time.
+ * The messages of a matrix share one tag, so two matrices with the same tag
+ * and processors arrive in the order they were sent.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class MatrixTransport {
+    private static final int DENSE = 0;
+    private static final int SPARSE = 1;
+    private static final int HEADER = 4;
+
+    private final boolean modular;
+    private final IntBuffer headerBuf = MPI.newIntBuffer(HEADER);
+    private IntBuffer intsBuf = MPI.newIntBuffer(0);
+    private DoubleBuffer doublesBuf = MPI.newDoubleBuffer(0);
+
+    // Statistics for the report
+    private long bytesSent;
+
+    /**
+     * Creates a transport for matrices over R64.
+     */
+    public MatrixTransport() {
+        this.modular = false;
+    }
+
+    /**
+     * Creates a transport for the matrices of a ring.
+     */
+    public MatrixTransport(Ring ring) {
+        this.modular = ModularKernel.isModular(ring);
+    }
+
+    /**
+     * Sends a matrix to another processor.
+     *
+     * @param A              The matrix.
+     * @param dest           The rank of the receiver.
+     * @param tag            The tag of the messages.
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public void send(MatrixS A, int dest, int tag) throws MPIException {
+        Pending message = pack(A, dest, tag, true);
+        MPI.COMM_WORLD.send(message.header, HEADER, MPI.INT, dest, tag);
+        if (message.ints != null) MPI.COMM_WORLD.send(message.ints, message.intCount, MPI.INT, dest, tag);
+        if (message.doubleCount > 0) MPI.COMM_WORLD.send(message.doubles, message.doubleCount, MPI.DOUBLE, dest, tag);
+    }
+
+    /**
+     * Starts sending a matrix to another processor. The matrix is packed into
+     * its own buffers, so it can be changed right away and several matrices
+     * can be sent at once.
+     *
+     * @param A              The matrix.
+     * @param dest           The rank of the receiver.
+     * @param tag            The tag of the messages.
+     * @return               The send, which must be completed with {@link #waitAll}.
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public Pending iSend(MatrixS A, int dest, int tag) throws MPIException {
+        Pending message = pack(A, dest, tag, false);
+        message.requests[0] = MPI.COMM_WORLD.iSend(message.header, HEADER, MPI.INT, dest, tag);
+        if (message.ints != null)
+            message.requests[1] = MPI.COMM_WORLD.iSend(message.ints, message.intCount, MPI.INT, dest, tag);
+        if (message.doubleCount > 0)
+            message.requests[2] = MPI.COMM_WORLD.iSend(message.doubles, message.doubleCount, MPI.DOUBLE, dest, tag);
+        return message;
+    }
+
+    /**
+     * Receives a matrix sent with {@link #send} or {@link #iSend}.
+     *
+     * @param source         The rank of the sender.
+     * @param tag            The tag of the messages.
+     * @return               The matrix.
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public MatrixS recv(int source, int tag) throws MPIException {
+        MPI.COMM_WORLD.recv(headerBuf, HEADER, MPI.INT, source, tag);
+        int intCount = intCount(modular, headerBuf), doubleCount = doubleCount(modular, headerBuf);
+        IntBuffer ints = (intCount >= 0) ? ints(intCount) : null;
+        DoubleBuffer values = doubles(doubleCount);
+        if (ints != null) MPI.COMM_WORLD.recv(ints, intCount, MPI.INT, source, tag);
+        if (doubleCount > 0) MPI.COMM_WORLD.recv(values, doubleCount, MPI.DOUBLE, source, tag);
+        return unpack(modular, headerBuf, ints, values);
+    }
+
+    /**
+     * Starts receiving a matrix sent with {@link #send} or {@link #iSend}.
+     * Only the header is received right away, the values are received
+     * by {@link #waitAny} as soon as their size is known.
+     *
+     * @param source         The rank of the sender.
+     * @param tag            The tag of the messages.
+     * @return               The receive, which must be completed with {@link #waitAny}.
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public Pending iRecv(int source, int tag) throws MPIException {
+        Pending message = new Pending(source, tag);
+        message.modular = modular;
+        message.header = MPI.newIntBuffer(HEADER);
+        message.requests[0] = MPI.COMM_WORLD.iRecv(message.header, HEADER, MPI.INT, source, tag);
+        return message;
+    }
+
+    /**
+     * Waits until one of the receives has its matrix, in whatever order they arrive.
+     * The receives that were already returned and nulls are skipped.
+     *
+     * @param receives       The receives started with {@link #iRecv}.
+     * @return               The index of the receive whose matrix has arrived,
+     *                       -1 if all of them were already returned.
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public static int waitAny(Pending[] receives) throws MPIException {
+        while (true) {
+            // Collecting the requests that haven't completed yet
+            int active = 0;
+            for (Pending message : receives)
+                if (message != null && !message.returned)
+                    for (Request request : message.requests) if (request != null) active++;
+            if (active == 0) return -1;
+            Request[] requests = new Request[active];
+            int[] owners = new int[active];
+            int[] slots = new int[active];
+            for (int i = 0, n = 0; i < receives.length; i++) {
+                if (receives[i] == null || receives[i].returned) continue;
+                for (int slot = 0; slot < 3; slot++) {
+                    if (receives[i].requests[slot] == null) continue;
+                    requests[n] = receives[i].requests[slot];
+                    owners[n] = i;
+                    slots[n++] = slot;
+                }
+            }
+
+            int index = Request.waitAny(requests);
+            Pending message = receives[owners[index]];
+            message.requests[slots[index]] = null;
+            if (slots[index] == 0) message.postValues();
+            if (message.requests[1] == null && message.requests[2] == null) {
+                message.unpack();
+                message.returned = true;
+                return owners[index];
+            }
+        }
+    }
+
+    /**
+     * Waits until all the sends are complete, nulls are skipped.
+     *
+     * @param sends          The sends started with {@link #iSend}.
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public static void waitAll(Pending[] sends) throws MPIException {
+        for (Pending message : sends) {
+            if (message == null) continue;
+            for (Request request : message.requests) if (request != null) request.waitFor();
+            Arrays.fill(message.requests, null);
+        }
+    }
+
+    /**
+     * A matrix that is being sent or received. Keeps the buffers alive until
+     * MPI is done with them.
+     */
+    public static class Pending {
+        private final int peer;
+        private final int tag;
+        // The requests of the header, the ints and the doubles
+        private final Request[] requests = new Request[3];
+        private IntBuffer header;
+        private IntBuffer ints;
+        private DoubleBuffer doubles;
+        private int intCount;
+        private int doubleCount;
+        private MatrixS matrix;
+        private boolean modular;
+        private boolean returned;
+
+        private Pending(int peer, int tag) {
+            this.peer = peer;
+            this.tag = tag;
+        }
+
+        /**
+         * Returns the received matrix, null until {@link #waitAny} has returned this receive.
+         */
+        public MatrixS getMatrix() {
+            return matrix;
+        }
+
+        // Receiving the values once the header says how many of them there are
+        private void postValues() throws MPIException {
+            intCount = intCount(modular, header);
+            doubleCount = doubleCount(modular, header);
+            if (intCount >= 0) {
+                ints = MPI.newIntBuffer(intCount);
+                requests[1] = MPI.COMM_WORLD.iRecv(ints, intCount, MPI.INT, peer, tag);
+            }
+            if (doubleCount > 0) {
+                doubles = MPI.newDoubleBuffer(doubleCount);
+                requests[2] = MPI.COMM_WORLD.iRecv(doubles, doubleCount, MPI.DOUBLE, peer, tag);
+            }
+        }
+
+        private void unpack() {
+            matrix = MatrixTransport.unpack(modular, header, ints, doubles);
+        }
+    }
+
+    // Puts the matrix into the reused buffers or into new ones that belong to the message
+    private Pending pack(MatrixS A, int dest, int tag, boolean reuse) {
+        int rows = Math.min(A.M.length, A.size);
+        int nonzeros = 0;
+        for (int i = 0; i < rows; i++) nonzeros += A.M[i].length;
+        int valueBytes = modular ? 4 : 8;
+        int layout = (4L * A.size + (4L + valueBytes) * nonzeros < (long) valueBytes * A.size * A.colNumb) ? SPARSE : DENSE;
+
+        Pending message = new Pending(dest, tag);
+        message.header = reuse ? headerBuf : MPI.newIntBuffer(HEADER);
+        message.header.clear();
+        message.header.put(layout).put(A.size).put(A.colNumb).put(nonzeros);
+        bytesSent += 4 * HEADER;
+
+        if (modular) {
+            // The values go after the row lengths and the columns, or alone in the dense layout
+            message.intCount = intCount(true, message.header);
+            IntBuffer ints = reuse ? ints(message.intCount) : MPI.newIntBuffer(message.intCount);
+            int first = (layout == DENSE) ? 0 : A.size + nonzeros;
+            if (layout == DENSE) for (int i = 0; i < message.intCount; i++) ints.put(i, 0);
+            else for (int i = 0; i < A.size; i++) ints.put(i, i < rows ? A.M[i].length : 0);
+            for (int i = 0, position = 0; i < rows; i++)
+                for (int j = 0; j < A.M[i].length; j++, position++) {
+                    if (layout == DENSE) ints.put(i * A.colNumb + A.col[i][j], A.M[i][j].intValue());
+                    else {
+                        ints.put(A.size + position, A.col[i][j]);
+                        ints.put(first + position, A.M[i][j].intValue());
+                    }
+                }
+            message.ints = ints;
+            bytesSent += 4L * message.intCount;
+            return message;
+        }
+
+        if (layout == DENSE) {
+            message.doubleCount = A.size * A.colNumb;
+            DoubleBuffer values = reuse ? doubles(message.doubleCount) : MPI.newDoubleBuffer(message.doubleCount);
+            for (int i = 0; i < message.doubleCount; i++) values.put(i, 0);
+            for (int i = 0; i < rows; i++)
+                for (int j = 0; j < A.M[i].length; j++)
+                    values.put(i * A.colNumb + A.col[i][j], A.M[i][j].doubleValue());
+            message.doubles = values;
+            bytesSent += 8L * message.doubleCount;
+            return message;
+        }
+
+        message.intCount = A.size + nonzeros;
+        message.doubleCount = nonzeros;
+        IntBuffer ints = reuse ? ints(message.intCount) : MPI.newIntBuffer(message.intCount);
+        DoubleBuffer values = reuse ? doubles(nonzeros) : MPI.newDoubleBuffer(nonzeros);
+        for (int i = 0; i < A.size; i++) ints.put(i < rows ? A.M[i].length : 0);
+        for (int i = 0; i < rows; i++)
+            for (int j = 0; j < A.M[i].length; j++) {
+                ints.put(A.col[i][j]);
+                values.put(A.M[i][j].doubleValue());
+            }
+        message.ints = ints;
+        message.doubles = values;
+        bytesSent += 4L * message.intCount + 8L * nonzeros;
+        return message;
+    }
+
+    // The amount of ints after a header, -1 if the layout has no message of ints
+    private static int intCount(boolean modular, IntBuffer header) {
+        int size = header.get(1), colNumb = header.get(2), nonzeros = header.get(3);
+        if (header.get(0) == SPARSE) return size + (modular ? 2 : 1) * nonzeros;
+        return modular ? size * colNumb : -1;
+    }
+
+    // The amount of doubles after a header
+    private static int doubleCount(boolean modular, IntBuffer header) {
+        if (modular) return 0;
+        return (header.get(0) == DENSE) ? header.get(1) * header.get(2) : header.get(3);
+    }
+
+    private static MatrixS unpack(boolean modular, IntBuffer header, IntBuffer ints, DoubleBuffer doubles) {
+        int size = header.get(1), colNumb = header.get(2), nonzeros = header.get(3);
+        if (!modular)
+            return (header.get(0) == DENSE) ? unpackDense(size, colNumb, doubles) : unpackSparse(size, colNumb, ints, doubles);
+        if (header.get(0) == DENSE) {
+            int[] values = new int[size * colNumb];
+            for (int i = 0; i < values.length; i++) values[i] = ints.get(i);
+            return ModularKernel.fromModular(values, size, colNumb);
+        }
+        MatrixS A = unpackSparse(size, colNumb, ints, null);
+        for (int i = 0, position = size + nonzeros; i < size; i++)
+            for (int j = 0; j < A.M[i].length; j++) A.M[i][j] = new NumberZp32(ints.get(position++));
+        return A;
+    }
+
+    private static MatrixS unpackDense(int size, int colNumb, DoubleBuffer values) {
+        Element[][] M = new Element[size][];
+        int[][] col = new int[size][];
+        int[] columns = new int[colNumb];
+        for (int i = 0; i < size; i++) {
+            int length = 0;
+            for (int j = 0; j < colNumb; j++)
+                if (values.get(i * colNumb + j) != 0) columns[length++] = j;
+            M[i] = new Element[length];
+            col[i] = new int[length];
+            for (int j = 0; j < length; j++) {
+                col[i][j] = columns[j];
+                M[i][j] = new NumberR64(values.get(i * colNumb + columns[j]));
+            }
+        }
+        return new MatrixS(size, colNumb, M, col);
+    }
+
+    private static MatrixS unpackSparse(int size, int colNumb, IntBuffer ints, DoubleBuffer values) {
+        Element[][] M = new Element[size][];
+        int[][] col = new int[size][];
+        for (int i = 0, position = 0; i < size; i++) {
+            int length = ints.get(i);
+            M[i] = new Element[length];
+            col[i] = new int[length];
+            for (int j = 0; j < length; j++, position++) {
+                col[i][j] = ints.get(size + position);
+                if (values != null) M[i][j] = new NumberR64(values.get(position));
+            }
+        }
+        return new MatrixS(size, colNumb, M, col);
+    }
+
+    /**
+     * Returns the amount of bytes sent by this transport so far, headers included.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    // A cleared buffer for count ints, reallocated only when it's too small
+    private IntBuffer ints(int count) {
+        if (intsBuf.capacity() < count) intsBuf = MPI.newIntBuffer(count);
+        intsBuf.clear();
+        return intsBuf;
+    }
+
+    // A cleared buffer for count doubles, reallocated only when it's too small
+    private DoubleBuffer doubles(int count) {
+        if (doublesBuf.capacity() < count) doublesBuf = MPI.newDoubleBuffer(count);
+        doublesBuf.clear();
+        return doublesBuf;
+    }
+}
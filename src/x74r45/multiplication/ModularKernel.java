@@ -0,0 +1,188 @@
+package x74r45.multiplication;
+
+import com.mathpar.matrix.MatrixS;
+import com.mathpar.number.Element;
+import com.mathpar.number.NumberZp32;
+import com.mathpar.number.Ring;
+import x74r45.Practical5_2;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Multiplies matrices over Z_p on plain int arrays, which is what Strassen's
+ * recursion uses instead of {@link DenseKernel} when the ring is Zp32.
+ * The values are stored row by row as ints from 0 to p - 1 and the products
+ * are added up in longs without reducing them: a long holds
+ * (2^63 - p) / (p - 1)^2 products before it can overflow, which is more than
+ * any matrix for small moduli like 13, so a value of the result is usually
+ * reduced only once. For large moduli the sums are reduced every time that
+ * amount of products is reached. The reduction is Barrett's: x mod p is
+ * x - q p with q = floor(x mu / 2^64) and mu = floor(2^64 / p), which is one
+ * multiplication instead of a division and at most two corrections.
+ * Like in DenseKernel, two rows of the result are computed at once and B is
+ * read in column blocks that stay in the cache.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class ModularKernel {
+    // The width of the column blocks of B and of the result
+    private static final int BLOCK = 64;
+
+    private final int p;
+    private final long mu;
+    private final int lazy;
+
+    /**
+     * @param p  The modulus, at least 2.
+     */
+    public ModularKernel(int p) {
+        if (p < 2) throw new IllegalArgumentException("The modulus must be at least 2.");
+        this.p = p;
+        this.mu = Long.divideUnsigned(-1L, p);
+        long square = (long) (p - 1) * (p - 1);
+        this.lazy = (int) Math.min(Integer.MAX_VALUE, (Long.MAX_VALUE - (p - 1)) / square);
+    }
+
+    /**
+     * Returns whether the matrices of the ring are multiplied by this kernel.
+     */
+    public static boolean isModular(Ring ring) {
+        return ring.algebra[0] == Ring.Zp32;
+    }
+
+    /**
+     * Multiplies two MatrixS over the Zp32 ring with the kernel.
+     *
+     * @param A     The first matrix, m x k.
+     * @param B     The second matrix, k x n.
+     * @param ring  The ring, its MOD32 is the modulus.
+     * @return      The product, m x n, of NumberZp32.
+     */
+    public static MatrixS multiply(MatrixS A, MatrixS B, Ring ring) {
+        ModularKernel kernel = new ModularKernel(Math.toIntExact(ring.MOD32));
+        int m = A.size, k = A.colNumb, n = B.colNumb;
+        int[] c = new int[m * n];
+        kernel.multiply(kernel.toModular(A, m, k), 0, k, kernel.toModular(B, k, n), 0, n, c, 0, n, m, k, n);
+        return fromModular(c, m, n);
+    }
+
+    /**
+     * Adds the product of an m x k block of a and a k x n block of b to an m x n block of c modulo p.
+     * A block starts at an offset of its array and its rows are stride elements apart,
+     * all the values must be from 0 to p - 1.
+     */
+    public void multiply(int[] a, int aOffset, int aStride, int[] b, int bOffset, int bStride,
+                         int[] c, int cOffset, int cStride, int m, int k, int n) {
+        long[] sums0 = new long[BLOCK], sums1 = new long[BLOCK];
+        for (int j0 = 0; j0 < n; j0 += BLOCK) {
+            int width = Math.min(BLOCK, n - j0);
+            for (int i = 0; i < m; i += 2) {
+                boolean pair = i + 1 < m;
+                int rowA0 = aOffset + i * aStride, rowA1 = rowA0 + aStride;
+                int row0 = cOffset + i * cStride + j0, row1 = row0 + cStride;
+                for (int j = 0; j < width; j++) {
+                    sums0[j] = c[row0 + j];
+                    sums1[j] = pair ? c[row1 + j] : 0;
+                }
+                for (int k0 = 0; k0 < k; k0 += lazy) {
+                    int k1 = (int) Math.min(k, (long) k0 + lazy);
+                    for (int t = k0; t < k1; t++) {
+                        long a0 = a[rowA0 + t], a1 = pair ? a[rowA1 + t] : 0;
+                        int rowB = bOffset + t * bStride + j0;
+                        for (int j = 0; j < width; j++) {
+                            long btj = b[rowB + j];
+                            sums0[j] += a0 * btj;
+                            sums1[j] += a1 * btj;
+                        }
+                    }
+                    // The next products could overflow the sums
+                    for (int j = 0; j < width; j++) {
+                        sums0[j] = reduce(sums0[j]);
+                        sums1[j] = reduce(sums1[j]);
+                    }
+                }
+                for (int j = 0; j < width; j++) c[row0 + j] = (int) sums0[j];
+                if (pair) for (int j = 0; j < width; j++) c[row1 + j] = (int) sums1[j];
+            }
+        }
+    }
+
+    /**
+     * Returns x mod p for a non-negative x with Barrett's reduction.
+     */
+    public long reduce(long x) {
+        long r = x - Math.multiplyHigh(x, mu) * p;
+        while (r >= p) r -= p;
+        return r;
+    }
+
+    /**
+     * Copies a MatrixS into a rows x cols array row by row, reducing the values modulo p.
+     */
+    public int[] toModular(MatrixS A, int rows, int cols) {
+        int[] values = new int[rows * cols];
+        for (int i = 0; i < A.M.length && i < rows; i++)
+            for (int j = 0; j < A.M[i].length; j++)
+                values[i * cols + A.col[i][j]] = (int) Math.floorMod(A.M[i][j].longValue(), (long) p);
+        return values;
+    }
+
+    /**
+     * Builds a rows x cols MatrixS of NumberZp32 from an array, the zeros are not stored.
+     */
+    public static MatrixS fromModular(int[] values, int rows, int cols) {
+        Element[][] M = new Element[rows][];
+        int[][] col = new int[rows][];
+        int[] columns = new int[cols];
+        for (int i = 0; i < rows; i++) {
+            int count = 0;
+            for (int j = 0; j < cols; j++)
+                if (values[i * cols + j] != 0) columns[count++] = j;
+            M[i] = new Element[count];
+            col[i] = Arrays.copyOf(columns, count);
+            for (int j = 0; j < count; j++) M[i][j] = new NumberZp32(values[i * cols + columns[j]]);
+        }
+        return new MatrixS(rows, cols, M, col);
+    }
+
+    /**
+     * Validates the kernel and Strassen's algorithm over Z_p against the
+     * multiplication of mathpar's ring on random matrices like the ones of
+     * Practical5_2, for a small modulus and for the largest prime below 2^31,
+     * and prints the times.
+     *
+     * @param args  The sizes of the matrices to try, 256 if none are given.
+     */
+    public static void main(String[] args) {
+        Random rnd = new Random(74);
+        for (int mod : new int[]{13, Integer.MAX_VALUE}) {
+            Ring ring = new Ring("Zp32[x]");
+            ring.setMOD32(mod);
+            for (String arg : (args.length > 0) ? args : new String[]{"256"}) {
+                int ord = Integer.parseInt(arg);
+                MatrixS A = new MatrixS(ord, ord, 10000, new int[]{5, 5}, rnd, NumberZp32.ONE, ring);
+                MatrixS B = new MatrixS(ord, ord, 10000, new int[]{5, 5}, rnd, NumberZp32.ONE, ring);
+
+                long start = System.nanoTime();
+                MatrixS expected = A.multiply(B, ring);
+                double ringTime = (System.nanoTime() - start) / 1e9;
+                start = System.nanoTime();
+                MatrixS kernel = multiply(A, B, ring);
+                double kernelTime = (System.nanoTime() - start) / 1e9;
+                start = System.nanoTime();
+                MatrixS strassen = Practical5_2.multiplySeq(A, B, Practical5_2.DEFAULT_CUTOFF, ring);
+                double strassenTime = (System.nanoTime() - start) / 1e9;
+
+                ModularKernel check = new ModularKernel(mod);
+                int[] values = check.toModular(expected, ord, ord);
+                System.out.printf("p = %d, ord = %d: kernel %s, Strassen %s, ring = %.4fs, kernel = %.4fs (%.1fx), "
+                                + "Strassen = %.4fs (%.1fx)%n", mod, ord,
+                        Arrays.equals(values, check.toModular(kernel, ord, ord)) ? "ok" : "WRONG",
+                        Arrays.equals(values, check.toModular(strassen, ord, ord)) ? "ok" : "WRONG",
+                        ringTime, kernelTime, ringTime / kernelTime, strassenTime, ringTime / strassenTime);
+            }
+        }
+    }
+}
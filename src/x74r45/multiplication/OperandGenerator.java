@@ -0,0 +1,101 @@
+package x74r45.multiplication;
+
+import com.mathpar.matrix.MatrixS;
+import com.mathpar.number.Element;
+import com.mathpar.number.NumberR64;
+import com.mathpar.number.NumberZp32;
+import com.mathpar.number.Ring;
+
+/**
+ * Generates the matrices to multiply so that any processor can build any
+ * block of them without the rest: every element is a hash of the seed, the
+ * matrix and its row and column, so the matrices are the same whichever
+ * processor builds which part of them. The hash is the finalizer of
+ * SplittableRandom (SplitMix64). The values are integers from 0 to 31, like
+ * the 5 random bits of the matrices of Practical5_2, which keeps the products
+ * exact in doubles and lets {@link ResultChecker} compare them exactly.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class OperandGenerator {
+    /** The first operand. */
+    public static final int A = 0;
+    /** The second operand. */
+    public static final int B = 1;
+
+    private static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final long seed;
+    private final int density;
+
+    /**
+     * @param seed     The seed of the matrices, every processor must use the same one.
+     * @param density  The share of non-zero elements in hundredths of a percent, like in MatrixS.
+     */
+    public OperandGenerator(long seed, int density) {
+        this.seed = seed;
+        this.density = density;
+    }
+
+    /**
+     * Returns an element of a matrix.
+     *
+     * @param matrix  {@link #A}, {@link #B} or any other number of a matrix.
+     * @param i       The row.
+     * @param j       The column.
+     * @return        The element, from 0 to 31.
+     */
+    public int value(int matrix, int i, int j) {
+        long hash = mix(mix(mix(seed + matrix * GAMMA) + i * GAMMA) + j * GAMMA);
+        if (density < 10000 && Long.remainderUnsigned(hash, 10000) >= density) return 0;
+        return (int) (hash >>> 59);
+    }
+
+    /**
+     * Returns the rows [r0, r1) and the columns [c0, c1) of a matrix as an array, row by row.
+     */
+    public double[] block(int matrix, int r0, int r1, int c0, int c1) {
+        int width = c1 - c0;
+        double[] values = new double[(r1 - r0) * width];
+        for (int i = r0; i < r1; i++)
+            for (int j = c0; j < c1; j++) values[(i - r0) * width + j - c0] = value(matrix, i, j);
+        return values;
+    }
+
+    /**
+     * Builds a whole matrix as a MatrixS of the ring: NumberZp32 reduced by
+     * its modulus over Zp32 and NumberR64 otherwise.
+     */
+    public MatrixS matrix(int matrix, int rows, int cols, Ring ring) {
+        boolean modular = ModularKernel.isModular(ring);
+        Element[][] M = new Element[rows][];
+        int[][] col = new int[rows][];
+        int[] values = new int[cols];
+        int[] columns = new int[cols];
+        for (int i = 0; i < rows; i++) {
+            int count = 0;
+            for (int j = 0; j < cols; j++) {
+                int value = value(matrix, i, j);
+                if (modular) value = (int) (value % ring.MOD32);
+                if (value == 0) continue;
+                values[count] = value;
+                columns[count++] = j;
+            }
+            M[i] = new Element[count];
+            col[i] = new int[count];
+            for (int j = 0; j < count; j++) {
+                M[i][j] = modular ? new NumberZp32(values[j]) : new NumberR64(values[j]);
+                col[i][j] = columns[j];
+            }
+        }
+        return new MatrixS(rows, cols, M, col);
+    }
+
+    // The finalizer of SplitMix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,98 @@
+package x74r45.multiplication;
+
+import com.mathpar.matrix.MatrixS;
+import com.mathpar.number.Ring;
+import x74r45.Practical5_2;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Multiplies matrices with Strassen's algorithm using several threads of one
+ * processor. On the first depth levels of the recursion the seven products,
+ * including the additions that build their operands, are fork-join tasks,
+ * below that (and for matrices not larger than the cutoff)
+ * every task continues with {@link Practical5_2#multiplySeq}.
+ * Depth 1 gives 7 tasks and depth 2 gives 49, which is enough to keep
+ * the threads busy on most nodes. With one thread everything is computed
+ * on the calling thread.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class ParallelStrassen {
+    private final ForkJoinPool pool;
+    private final int depth;
+    private final int cutoff;
+    private final Ring ring;
+
+    /**
+     * @param threads  The amount of threads to use, 0 to use all available cores.
+     * @param depth    The amount of recursion levels whose products are computed in parallel.
+     * @param cutoff   Matrices of this size or smaller are multiplied by the dense kernel.
+     * @param ring     The ring of the matrices.
+     */
+    public ParallelStrassen(int threads, int depth, int cutoff, Ring ring) {
+        if (threads == 0) threads = Runtime.getRuntime().availableProcessors();
+        this.pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+        this.depth = depth;
+        this.cutoff = cutoff;
+        this.ring = ring;
+    }
+
+    /**
+     * Multiplies an m x k matrix by a k x n one.
+     */
+    public MatrixS multiply(MatrixS A, MatrixS B) {
+        if (A.colNumb != B.size) throw new IllegalArgumentException("Matrices have incompatible sizes.");
+        if (pool == null) return Practical5_2.multiplySeq(A, B, cutoff, ring);
+        return pool.invoke(ForkJoinTask.adapt(() -> product(A, B, depth)));
+    }
+
+    public void shutdown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    private MatrixS product(MatrixS A, MatrixS B, int depth) {
+        if (depth == 0 || Math.max(A.size, Math.max(A.colNumb, B.colNumb)) <= cutoff
+                || Math.min(A.size, Math.min(A.colNumb, B.colNumb)) == 1) return Practical5_2.multiplySeq(A, B, cutoff, ring);
+        if (A.size % 2 != 0 || A.colNumb % 2 != 0 || B.colNumb % 2 != 0)
+            return MatrixBlocks.completePeeled(A, B,
+                    product(MatrixBlocks.evenPart(A), MatrixBlocks.evenPart(B), depth), ring);
+
+        MatrixS[] AA = MatrixBlocks.split(A);
+        MatrixS[] BB = MatrixBlocks.split(B);
+        ProductTask[] tasks = new ProductTask[7];
+        for (int k = 0; k < 7; k++) tasks[k] = new ProductTask(k, AA, BB, depth - 1);
+
+        // The calling thread takes the first product instead of waiting
+        for (int k = 1; k < 7; k++) tasks[k].fork();
+        MatrixS[] MM = new MatrixS[7];
+        MM[0] = tasks[0].compute();
+        for (int k = 1; k < 7; k++) MM[k] = tasks[k].join();
+        return Practical5_2.combine(MM, ring);
+    }
+
+    // Builds the operands of the k-th product and multiplies them
+    private class ProductTask extends RecursiveTask<MatrixS> {
+        private static final long serialVersionUID = 1L;
+
+        private final int k;
+        private final MatrixS[] AA, BB;
+        private final int depth;
+
+        ProductTask(int k, MatrixS[] AA, MatrixS[] BB, int depth) {
+            this.k = k;
+            this.AA = AA;
+            this.BB = BB;
+            this.depth = depth;
+        }
+
+        @Override
+        protected MatrixS compute() {
+            MatrixS[] operands = Practical5_2.operands(k, AA, BB, ring);
+            return product(operands[0], operands[1], depth);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package x74r45.multiplication;
+
+import com.mathpar.matrix.MatrixS;
+import com.mathpar.number.Ring;
+
+/**
+ * Checks products of the matrices of an {@link OperandGenerator} with
+ * Freivalds' test: for a random vector x, C x must be equal to A (B x).
+ * That takes O(k (m + n)) operations instead of the O(m k n) of multiplying
+ * again, and every block of C can be checked on its own, because the rows of A
+ * and the columns of B it needs are generated instead of received. A row of C
+ * with one wrong element always fails, since no element of x is 0 (modulo p
+ * for a prime p), and several wrong elements pass only if they cancel out.
+ * The sums are computed in longs, so the check is exact for both R64 and Z_p.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class ResultChecker {
+    // The number of the random vector in the generator
+    private static final int VECTOR = 2;
+
+    /**
+     * Checks a whole product.
+     *
+     * @param generator  The generator of A and B.
+     * @param C          The product of A (m x k) and B (k x n).
+     * @param k          The amount of columns of A.
+     * @param ring       The ring of the matrices.
+     * @return           Whether C is the product.
+     */
+    public static boolean check(OperandGenerator generator, MatrixS C, int k, Ring ring) {
+        int modulus = ModularKernel.isModular(ring) ? Math.toIntExact(ring.MOD32) : 0;
+        return check(generator, k, DenseKernel.toDense(C, C.size, C.colNumb), 0, C.size, 0, C.colNumb, modulus);
+    }
+
+    /**
+     * Checks a block of a product.
+     *
+     * @param generator  The generator of A and B.
+     * @param k          The amount of columns of A.
+     * @param c          The rows [r0, r1) and the columns [c0, c1) of the product, row by row.
+     * @param r0         The first row of the block.
+     * @param r1         The row after the last one.
+     * @param c0         The first column of the block.
+     * @param c1         The column after the last one.
+     * @param modulus    The modulus of Z_p, 0 for real numbers.
+     * @return           Whether the block is the same as in the product.
+     */
+    public static boolean check(OperandGenerator generator, int k, double[] c, int r0, int r1, int c0, int c1,
+                                int modulus) {
+        int width = c1 - c0;
+        long[] x = new long[width];
+        for (int j = 0; j < width; j++) {
+            int value = generator.value(VECTOR, 0, c0 + j);
+            x[j] = 1 + ((modulus > 0) ? value % (modulus - 1) : value);
+        }
+
+        // B x for the columns of the block
+        long[] bx = new long[k];
+        for (int q = 0; q < k; q++) {
+            long sum = 0;
+            for (int j = 0; j < width; j++) sum += generator.value(OperandGenerator.B, q, c0 + j) * x[j];
+            bx[q] = reduce(sum, modulus);
+        }
+
+        for (int i = r0; i < r1; i++) {
+            long expected = 0, actual = 0;
+            for (int q = 0; q < k; q++) expected = reduce(expected + generator.value(OperandGenerator.A, i, q) * bx[q], modulus);
+            for (int j = 0; j < width; j++) actual = reduce(actual + Math.round(c[(i - r0) * width + j]) * x[j], modulus);
+            if (expected != actual) return false;
+        }
+        return true;
+    }
+
+    private static long reduce(long x, int modulus) {
+        return (modulus > 0) ? Math.floorMod(x, modulus) : x;
+    }
+}
@@ -0,0 +1,211 @@
+package x74r45.multiplication;
+
+import mpi.Intracomm;
+import mpi.MPI;
+import mpi.MPIException;
+import x74r45.scaling.PhaseTimer;
+
+/**
+ * Multiplies matrices that are spread over all processors in 2D blocks with
+ * SUMMA (van de Geijn and Watts, "SUMMA: Scalable Universal Matrix
+ * Multiplication Algorithm", 1997). The processors form a grid of
+ * gridRows x gridCols, as close to a square as their amount allows, and the
+ * processor in row i and column j of the grid keeps
+ * <ul>
+ *     <li>the rows of part i and the columns of part j of A (m x k), the columns
+ *         of A being split into gridCols parts;</li>
+ *     <li>the rows of part i and the columns of part j of B (k x n), the rows
+ *         of B being split into gridRows parts;</li>
+ *     <li>the rows of part i and the columns of part j of C (m x n).</li>
+ * </ul>
+ * The product is a sum over panels of k: for every panel, the processors that
+ * have its columns of A broadcast them along their rows of the grid, the ones
+ * that have its rows of B broadcast them along their columns, and every
+ * processor adds the product of the two panels to its block of C with
+ * {@link DenseKernel}. So a processor only ever holds its blocks and two
+ * panels, and no processor gets a whole matrix. The rows and the columns of
+ * the grid are communicators split from MPI.COMM_WORLD.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class Summa {
+    private final int gridRows;
+    private final int gridCols;
+    private final int row;
+    private final int col;
+    private final Intracomm rowComm;
+    private final Intracomm colComm;
+    private final int panel;
+    private long bytesSent;
+
+    /**
+     * Builds the grid of all processors. Must be called by every processor.
+     *
+     * @param panel          The largest amount of columns of A broadcast at once.
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public Summa(int panel) throws MPIException {
+        int np = MPI.COMM_WORLD.getSize(), rank = MPI.COMM_WORLD.getRank();
+        int rows = (int) Math.sqrt(np);
+        while (np % rows != 0) rows--;
+        this.gridRows = rows;
+        this.gridCols = np / rows;
+        this.row = rank / gridCols;
+        this.col = rank % gridCols;
+        // The rank in the row communicator is the column of the grid and vice versa
+        this.rowComm = MPI.COMM_WORLD.split(row, col);
+        this.colComm = MPI.COMM_WORLD.split(col, row);
+        this.panel = panel;
+    }
+
+    /**
+     * Returns the first index of a part when length indices are split into parts
+     * almost equal parts, part == parts gives length.
+     */
+    public static int start(int length, int parts, int part) {
+        return (int) ((long) length * part / parts);
+    }
+
+    // The part of start() that has an index
+    private static int owner(int index, int length, int parts) {
+        return (int) ((((long) index + 1) * parts - 1) / length);
+    }
+
+    /**
+     * Multiplies the distributed matrices. Must be called by every processor.
+     *
+     * @param a              The block of A of this processor, row by row: the rows
+     *                       {@link #rowPart} of m and the columns {@link #colPart} of k.
+     * @param b              The block of B of this processor, row by row: the rows
+     *                       {@link #rowPart} of k and the columns {@link #colPart} of n.
+     * @param m              The amount of rows of A.
+     * @param k              The amount of columns of A.
+     * @param n              The amount of columns of B.
+     * @return               The block of C of this processor, row by row: the rows
+     *                       {@link #rowPart} of m and the columns {@link #colPart} of n.
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public double[] multiply(double[] a, double[] b, int m, int k, int n) throws MPIException {
+        int rows = rowPart(m)[1] - rowPart(m)[0];
+        int cols = colPart(n)[1] - colPart(n)[0];
+        int aStart = colPart(k)[0], aWidth = colPart(k)[1] - aStart;
+        int bStart = rowPart(k)[0];
+        double[] c = new double[rows * cols];
+        double[] aPanel = new double[rows * panel];
+        double[] bPanel = new double[panel * cols];
+
+        for (int k0 = 0, k1; k0 < k; k0 = k1) {
+            // The panel ends where the part of A or B it belongs to ends
+            int aOwner = owner(k0, k, gridCols), bOwner = owner(k0, k, gridRows);
+            k1 = Math.min(k0 + panel, Math.min(start(k, gridCols, aOwner + 1), start(k, gridRows, bOwner + 1)));
+            int width = k1 - k0;
+
+            if (col == aOwner)
+                for (int i = 0; i < rows; i++) System.arraycopy(a, i * aWidth + k0 - aStart, aPanel, i * width, width);
+            if (row == bOwner) System.arraycopy(b, (k0 - bStart) * cols, bPanel, 0, width * cols);
+            rowComm.bcast(aPanel, rows * width, MPI.DOUBLE, aOwner);
+            colComm.bcast(bPanel, width * cols, MPI.DOUBLE, bOwner);
+            // The roots of the broadcasts send their panels to the rest of the row or the column
+            if (col == aOwner) bytesSent += 8L * rows * width * (gridCols - 1);
+            if (row == bOwner) bytesSent += 8L * width * cols * (gridRows - 1);
+            DenseKernel.multiply(aPanel, 0, width, bPanel, 0, cols, c, 0, cols, rows, width, cols);
+        }
+        return c;
+    }
+
+    /**
+     * Returns the first index and the index after the last one of the part of
+     * length indices that belongs to the row of this processor in the grid.
+     */
+    public int[] rowPart(int length) {
+        return new int[]{start(length, gridRows, row), start(length, gridRows, row + 1)};
+    }
+
+    /**
+     * Returns the first index and the index after the last one of the part of
+     * length indices that belongs to the column of this processor in the grid.
+     */
+    public int[] colPart(int length) {
+        return new int[]{start(length, gridCols, col), start(length, gridCols, col + 1)};
+    }
+
+    /**
+     * Returns the amount of bytes of the panels this processor has broadcast.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public int getGridRows() {
+        return gridRows;
+    }
+
+    public int getGridCols() {
+        return gridCols;
+    }
+
+    /**
+     * Multiplies generated matrices with SUMMA, checks the blocks of the product
+     * with {@link ResultChecker} and prints the slowest processor's times in the console,
+     * also as the report of a {@link PhaseTimer}.
+     *
+     * @param args           The size of the matrices: n for two n x n matrices or m x k x n
+     *                       for an m x k and a k x n matrix, and optionally the width of the panels.
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public static void main(String[] args) throws MPIException {
+        MPI.Init(args);
+        int rank = MPI.COMM_WORLD.getRank();
+        String[] sizes = args[0].split("x");
+        int m = Integer.parseInt(sizes[0]);
+        int k = (sizes.length == 3) ? Integer.parseInt(sizes[1]) : m;
+        int n = (sizes.length == 3) ? Integer.parseInt(sizes[2]) : m;
+        Summa summa = new Summa((args.length > 1) ? Integer.parseInt(args[1]) : 64);
+        OperandGenerator generator = new OperandGenerator(74, 10000);
+        PhaseTimer timer = new PhaseTimer();
+        if (rank == 0) System.out.printf("Grid: %d x %d%n", summa.getGridRows(), summa.getGridCols());
+
+        // Every processor generates only its own blocks
+        double start = MPI.wtime();
+        int[] rows = summa.rowPart(m), cols = summa.colPart(n);
+        double[] a = generator.block(OperandGenerator.A, rows[0], rows[1], summa.colPart(k)[0], summa.colPart(k)[1]);
+        double[] b = generator.block(OperandGenerator.B, summa.rowPart(k)[0], summa.rowPart(k)[1], cols[0], cols[1]);
+        double[] times = new double[3];
+        times[0] = MPI.wtime() - start;
+        timer.addTime(PhaseTimer.GENERATION, times[0]);
+
+        MPI.COMM_WORLD.barrier();
+        start = MPI.wtime();
+        double[] c = summa.multiply(a, b, m, k, n);
+        times[1] = MPI.wtime() - start;
+        timer.addTime(PhaseTimer.COMPUTE, times[1]);
+        timer.addBytes(PhaseTimer.COMPUTE, summa.getBytesSent());
+
+        start = MPI.wtime();
+        int[] correct = {ResultChecker.check(generator, k, c, rows[0], rows[1], cols[0], cols[1], 0) ? 1 : 0};
+        times[2] = MPI.wtime() - start;
+
+        double[] slowest = new double[3];
+        int[] allCorrect = new int[1];
+        MPI.COMM_WORLD.reduce(times, slowest, 3, MPI.DOUBLE, MPI.MAX, 0);
+        MPI.COMM_WORLD.reduce(correct, allCorrect, 1, MPI.INT, MPI.MIN, 0);
+        if (rank == 0)
+            System.out.printf("generation = %.4fs, multiplication = %.4fs (%.2f GFLOP/s), check = %.4fs: %s%n",
+                    slowest[0], slowest[1], 2.0 * m * k * n / slowest[1] / 1e9, slowest[2],
+                    (allCorrect[0] == 1) ? "correct" : "WRONG");
+        timer.report("Summa", Math.max(m, Math.max(k, n)));
+        summa.free();
+        MPI.Finalize();
+    }
+
+    /**
+     * Frees the communicators of the grid.
+     *
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public void free() throws MPIException {
+        rowComm.free();
+        colComm.free();
+    }
+}
@@ -0,0 +1,82 @@
+package x74r45.multiplication;
+
+import com.mathpar.matrix.MatrixS;
+import com.mathpar.number.NumberZp32;
+import com.mathpar.number.Ring;
+import com.mathpar.parallel.utils.MPITransport;
+import mpi.MPI;
+import mpi.MPIException;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares the throughput of {@link MatrixTransport} and MPITransport by
+ * sending matrices back and forth between processors 0 and 1. The matrices
+ * are generated like in Practical5_2, dense and with 1% of non-zero elements.
+ * The time of one transfer is half of the best round trip, and the throughput
+ * is counted in the bytes of the matrix's values (8 per non-zero element),
+ * so that both transports are measured against the same amount of data.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class TransportComparison {
+    private static final int[] SIZES = {64, 128, 256, 512, 1024};
+    private static final int[] DENSITIES = {10000, 100}; // in hundredths of a percent, like in MatrixS
+    private static final int ROUND_TRIPS = 10;
+
+    /**
+     * Runs the comparison and prints the results in the console.
+     *
+     * @param args                     Not used.
+     * @throws MPIException            If an error occurred during MPI communications.
+     * @throws IOException             If MPITransport threw this exception.
+     * @throws ClassNotFoundException  If MPITransport threw this exception.
+     */
+    public static void main(String[] args) throws MPIException, IOException, ClassNotFoundException {
+        MPI.Init(args);
+        int rank = MPI.COMM_WORLD.getRank();
+        if (MPI.COMM_WORLD.getSize() < 2) throw new IllegalStateException("Number of processors is less than 2.");
+
+        Ring ring = new Ring("R64[x]");
+        ring.setMOD32(13);
+        MatrixTransport transport = new MatrixTransport();
+        Random rnd = new Random(74);
+        if (rank == 0) System.out.println("size  density  nonzeros  MatrixTransport (ms, MB/s)  MPITransport (ms, MB/s)  speedup");
+
+        for (int size : SIZES)
+            for (int density : DENSITIES) {
+                MatrixS A = (rank == 0) ? new MatrixS(size, size, density, new int[]{5, 5}, rnd, NumberZp32.ONE, ring) : null;
+                double primitive = Double.MAX_VALUE, serialized = Double.MAX_VALUE;
+                // One extra round trip for warming up
+                for (int trip = 0; trip <= ROUND_TRIPS; trip++) {
+                    MPI.COMM_WORLD.barrier();
+                    double start = MPI.wtime();
+                    if (rank == 0) {
+                        transport.send(A, 1, 0);
+                        transport.recv(1, 0);
+                    } else if (rank == 1) transport.send(transport.recv(0, 0), 0, 0);
+                    if (trip > 0) primitive = Math.min(primitive, (MPI.wtime() - start) / 2);
+
+                    MPI.COMM_WORLD.barrier();
+                    start = MPI.wtime();
+                    if (rank == 0) {
+                        MPITransport.sendObject(A, 1, 0);
+                        MPITransport.recvObject(1, 0);
+                    } else if (rank == 1) MPITransport.sendObject(MPITransport.recvObject(0, 0), 0, 0);
+                    if (trip > 0) serialized = Math.min(serialized, (MPI.wtime() - start) / 2);
+                }
+
+                if (rank == 0) {
+                    long nonzeros = 0;
+                    for (int i = 0; i < Math.min(A.M.length, A.size); i++) nonzeros += A.M[i].length;
+                    double megabytes = 8.0 * nonzeros / 1e6;
+                    System.out.printf("%4d  %6.2f%%  %8d  %10.3f  %12.1f  %10.3f  %11.1f  %6.2fx%n",
+                            size, density / 100.0, nonzeros, primitive * 1e3, megabytes / primitive,
+                            serialized * 1e3, megabytes / serialized, serialized / primitive);
+                }
+            }
+        MPI.Finalize();
+    }
+}
@@ -0,0 +1,192 @@
+package x74r45.multiplication;
+
+import com.mathpar.matrix.MatrixS;
+import com.mathpar.number.NumberZp32;
+import com.mathpar.number.Ring;
+import x74r45.Practical5_2;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Multiplies square matrices with the Winograd variant of Strassen's algorithm,
+ * which needs 15 additions per level instead of 18:
+ * <pre>
+ *     S1 = A21 + A22   S2 = S1 - A11   S3 = A11 - A21   S4 = A12 - S2
+ *     T1 = B12 - B11   T2 = B22 - T1   T3 = B22 - B12   T4 = T2 - B21
+ *     P1 = A11 B11   P2 = A12 B21   P3 = S4 B22   P4 = A22 T4
+ *     P5 = S1 T1     P6 = S2 T2     P7 = S3 T3
+ *     C11 = P1 + P2          U2 = P1 + P6    U3 = U2 + P7
+ *     C12 = U2 + P5 + P3     C21 = U3 - P4   C22 = U3 + P5
+ * </pre>
+ * The matrices are dense double arrays and every level writes into the
+ * quadrants of its result and two temporaries X and Y, in the order from
+ * Boyer, Dumas, Pernet and Zhou, "Memory efficient scheduling of
+ * Strassen-Winograd's matrix multiplication algorithm" (2009).
+ * The temporaries of all levels are parts of one scratch arena, which is
+ * allocated once and reused by the products of a level one after another,
+ * so besides A, B and C a multiplication of n x n matrices needs at most
+ * 2/3 n^2 more doubles. Matrices of cutoff size or smaller are multiplied by
+ * {@link DenseKernel}, and an odd size is handled by peeling the last row and
+ * column like in {@link MatrixBlocks}.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class WinogradStrassen {
+    private final int cutoff;
+    private double[] scratch = new double[0];
+    private int[] levelOffsets = new int[0];
+    private long peakBytes;
+
+    /**
+     * @param cutoff  Matrices of this size or smaller are multiplied by the dense kernel.
+     */
+    public WinogradStrassen(int cutoff) {
+        this.cutoff = cutoff;
+    }
+
+    /**
+     * Multiplies two square MatrixS of the same size.
+     */
+    public MatrixS multiply(MatrixS A, MatrixS B) {
+        if (A.size != B.size) throw new IllegalArgumentException("Matrices have different sizes.");
+        int n = A.size;
+        double[] c = new double[n * n];
+        multiply(DenseKernel.toDense(A, n), DenseKernel.toDense(B, n), c, n);
+        return DenseKernel.fromDense(c, n);
+    }
+
+    /**
+     * Writes the product of a and b into c, all of them are n x n and stored row by row.
+     */
+    public void multiply(double[] a, double[] b, double[] c, int n) {
+        // Sizing the arena: X and Y of every level that is split
+        int levels = 0;
+        long needed = 0;
+        for (int size = n; size > cutoff && size >= 2; size = (size & ~1) / 2, levels++)
+            needed += 2L * (size / 2) * (size / 2);
+        if (needed > Integer.MAX_VALUE) throw new IllegalArgumentException("The matrices are too large.");
+        if (scratch.length < needed) scratch = new double[(int) needed];
+        levelOffsets = new int[levels];
+        for (int level = 0, offset = 0, size = n; level < levels; level++, size = (size & ~1) / 2) {
+            levelOffsets[level] = offset;
+            offset += 2 * (size / 2) * (size / 2);
+        }
+        peakBytes = 8L * (3L * n * n + needed);
+
+        product(a, 0, n, b, 0, n, c, 0, n, n, 0);
+    }
+
+    /**
+     * Returns the memory of the last multiplication in bytes: A, B, C and the
+     * part of the arena it used. The arena is never larger than 2/3 of C.
+     */
+    public long getPeakBytes() {
+        return peakBytes;
+    }
+
+    /**
+     * Returns the size of the scratch arena in bytes.
+     */
+    public long getScratchBytes() {
+        return 8L * scratch.length;
+    }
+
+    // C = A B for the n x n blocks at the given offsets and strides, on the given level of the recursion
+    private void product(double[] a, int a11, int as, double[] b, int b11, int bs,
+                         double[] c, int c11, int cs, int n, int level) {
+        if (n <= cutoff || n < 2) {
+            clear(c, c11, cs, n, n);
+            DenseKernel.multiply(a, a11, as, b, b11, bs, c, c11, cs, n, n, n);
+            return;
+        }
+        if (n % 2 != 0) {
+            // The even part on this level, then the products of the last column of A and the last row of B
+            int m = n - 1;
+            product(a, a11, as, b, b11, bs, c, c11, cs, m, level);
+            DenseKernel.multiply(a, a11 + m, as, b, b11 + m * bs, bs, c, c11, cs, m, 1, m);
+            clear(c, c11 + m, cs, m, 1);
+            DenseKernel.multiply(a, a11, as, b, b11 + m, bs, c, c11 + m, cs, m, n, 1);
+            clear(c, c11 + m * cs, cs, 1, n);
+            DenseKernel.multiply(a, a11 + m * as, as, b, b11, bs, c, c11 + m * cs, cs, 1, n, n);
+            return;
+        }
+
+        int h = n / 2;
+        int a12 = a11 + h, a21 = a11 + h * as, a22 = a21 + h;
+        int b12 = b11 + h, b21 = b11 + h * bs, b22 = b21 + h;
+        int c12 = c11 + h, c21 = c11 + h * cs, c22 = c21 + h;
+        double[] t = scratch;
+        int x = levelOffsets[level], y = x + h * h;
+
+        combine(t, x, h, a, a11, as, a, a21, as, h, -1);          // X = S3 = A11 - A21
+        combine(t, y, h, b, b22, bs, b, b12, bs, h, -1);          // Y = T3 = B22 - B12
+        product(t, x, h, t, y, h, c, c21, cs, h, level + 1);      // C21 = P7 = S3 T3
+        combine(t, x, h, a, a21, as, a, a22, as, h, 1);           // X = S1 = A21 + A22
+        combine(t, y, h, b, b12, bs, b, b11, bs, h, -1);          // Y = T1 = B12 - B11
+        product(t, x, h, t, y, h, c, c22, cs, h, level + 1);      // C22 = P5 = S1 T1
+        combine(t, x, h, t, x, h, a, a11, as, h, -1);             // X = S2 = S1 - A11
+        combine(t, y, h, b, b22, bs, t, y, h, h, -1);             // Y = T2 = B22 - T1
+        product(t, x, h, t, y, h, c, c12, cs, h, level + 1);      // C12 = P6 = S2 T2
+        combine(t, x, h, a, a12, as, t, x, h, h, -1);             // X = S4 = A12 - S2
+        product(t, x, h, b, b22, bs, c, c11, cs, h, level + 1);   // C11 = P3 = S4 B22
+        product(a, a11, as, b, b11, bs, t, x, h, h, level + 1);   // X = P1 = A11 B11
+        combine(c, c12, cs, t, x, h, c, c12, cs, h, 1);           // C12 = U2 = P1 + P6
+        combine(c, c21, cs, c, c12, cs, c, c21, cs, h, 1);        // C21 = U3 = U2 + P7
+        combine(c, c12, cs, c, c12, cs, c, c22, cs, h, 1);        // C12 = U4 = U2 + P5
+        combine(c, c22, cs, c, c21, cs, c, c22, cs, h, 1);        // C22 = U7 = U3 + P5
+        combine(c, c12, cs, c, c12, cs, c, c11, cs, h, 1);        // C12 = U5 = U4 + P3
+        combine(t, y, h, t, y, h, b, b21, bs, h, -1);             // Y = T4 = T2 - B21
+        product(a, a22, as, t, y, h, c, c11, cs, h, level + 1);   // C11 = P4 = A22 T4
+        combine(c, c21, cs, c, c21, cs, c, c11, cs, h, -1);       // C21 = U6 = U3 - P4
+        product(a, a12, as, b, b21, bs, c, c11, cs, h, level + 1); // C11 = P2 = A12 B21
+        combine(c, c11, cs, t, x, h, c, c11, cs, h, 1);           // C11 = U1 = P1 + P2
+    }
+
+    private static void clear(double[] c, int offset, int stride, int rows, int cols) {
+        for (int i = 0; i < rows; i++) Arrays.fill(c, offset + i * stride, offset + i * stride + cols, 0);
+    }
+
+    // D = P + sign * Q for n x n blocks, D may be the same block as P or Q
+    private static void combine(double[] d, int dOffset, int ds, double[] p, int pOffset, int ps,
+                                double[] q, int qOffset, int qs, int n, int sign) {
+        for (int i = 0; i < n; i++) {
+            int di = dOffset + i * ds, pi = pOffset + i * ps, qi = qOffset + i * qs;
+            if (sign > 0) for (int j = 0; j < n; j++) d[di + j] = p[pi + j] + q[qi + j];
+            else for (int j = 0; j < n; j++) d[di + j] = p[pi + j] - q[qi + j];
+        }
+    }
+
+    /**
+     * Validates the engine against {@link Practical5_2#multiplySeq} on random
+     * matrices like the ones of Practical5_2 and prints the times and the memory.
+     *
+     * @param args  The sizes of the matrices to try, 256 if none are given.
+     */
+    public static void main(String[] args) {
+        Ring ring = new Ring("R64[x]");
+        ring.setMOD32(13);
+        Random rnd = new Random(74);
+        WinogradStrassen winograd = new WinogradStrassen(Practical5_2.DEFAULT_CUTOFF);
+        for (String arg : (args.length > 0) ? args : new String[]{"256"}) {
+            int ord = Integer.parseInt(arg);
+            MatrixS A = new MatrixS(ord, ord, 10000, new int[]{5, 5}, rnd, NumberZp32.ONE, ring);
+            MatrixS B = new MatrixS(ord, ord, 10000, new int[]{5, 5}, rnd, NumberZp32.ONE, ring);
+
+            long start = System.nanoTime();
+            double[] expected = DenseKernel.toDense(Practical5_2.multiplySeq(A, B, Practical5_2.DEFAULT_CUTOFF, ring), ord);
+            double strassenTime = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            double[] actual = DenseKernel.toDense(winograd.multiply(A, B), ord);
+            double winogradTime = (System.nanoTime() - start) / 1e9;
+
+            double maxDifference = 0;
+            for (int i = 0; i < expected.length; i++)
+                maxDifference = Math.max(maxDifference, Math.abs(expected[i] - actual[i]));
+            System.out.printf("ord = %d: max difference = %s, multiplySeq = %.4fs, Winograd = %.4fs, "
+                            + "peak = %.2f MB (arena %.2f MB)%n", ord, maxDifference, strassenTime, winogradTime,
+                    winograd.getPeakBytes() / 1e6, winograd.getScratchBytes() / 1e6);
+        }
+    }
+}
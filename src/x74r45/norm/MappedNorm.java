@@ -0,0 +1,272 @@
+package x74r45.norm;
+
+import mpi.MPI;
+import mpi.MPIException;
+import x74r45.Practical5_1;
+import x74r45.scaling.PhaseTimer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Calculates the norm of a matrix that is kept in a file and can be larger
+ * than the memory, like {@link Practical5_1} does for a generated one.
+ * The file holds the elements row by row in little-endian byte order without
+ * a header, so only the amount of elements matters and it may exceed 2^31.
+ * Every processor takes an equal part of the elements, maps it into memory
+ * with FileChannel.map in windows of a bounded size and sums the squares of
+ * the elements of one window at a time, so the operating system reads the
+ * file while it's needed and drops the pages that were already summed.
+ * The sums of all processors are then reduced on the root.
+ * Run this class with the following arguments:
+ * <ul>
+ *     <li>path - The file of the matrix.</li>
+ *     <li>type - The type of the elements: "int", "long" or "double".</li>
+ * </ul>
+ * Optional settings can follow them as key=value pairs:
+ * <ul>
+ *     <li>window - The size of a mapped window in megabytes, 64 by default.</li>
+ *     <li>create - Writes a matrix of this many elements to the file first, the
+ *                  elements are the same as the ones {@link Practical5_1} generates.</li>
+ *     <li>seed   - The seed of the created matrix, 0 by default.</li>
+ * </ul>
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class MappedNorm {
+    private final FileChannel channel;
+    private final int elementSize;
+    private final char type;
+    private final long windowBytes;
+
+    /**
+     * Opens a matrix file for reading.
+     *
+     * @param path           The file of the matrix.
+     * @param type           "int", "long" or "double".
+     * @param windowBytes    The largest amount of bytes mapped at once.
+     * @throws IOException   If the file couldn't be opened.
+     */
+    public MappedNorm(String path, String type, long windowBytes) throws IOException {
+        this.elementSize = elementSize(type);
+        this.type = type.charAt(0);
+        // A window holds a whole amount of elements and can't be larger than a MappedByteBuffer
+        this.windowBytes = Math.max(elementSize, Math.min(windowBytes, Integer.MAX_VALUE) / elementSize * elementSize);
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+    }
+
+    /**
+     * Returns the size of an element of a type in bytes.
+     */
+    public static int elementSize(String type) {
+        switch (type) {
+            case "int":
+                return Integer.BYTES;
+            case "long":
+                return Long.BYTES;
+            case "double":
+                return Double.BYTES;
+            default:
+                throw new IllegalArgumentException("Unknown type of elements: " + type);
+        }
+    }
+
+    /**
+     * Returns the amount of elements in the file.
+     *
+     * @throws IOException   If the size of the file couldn't be read.
+     */
+    public long count() throws IOException {
+        return channel.size() / elementSize;
+    }
+
+    /**
+     * Sums the squares of the elements [from, to) of the file.
+     *
+     * @param from           The first element.
+     * @param to             The element after the last one.
+     * @return               The sum of squares.
+     * @throws IOException   If the file couldn't be mapped.
+     */
+    public double sumOfSquares(long from, long to) throws IOException {
+        double sum = 0;
+        for (long position = from * elementSize, end = to * elementSize; position < end; position += windowBytes) {
+            long length = Math.min(windowBytes, end - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            sum += sumOfSquares(window.order(ByteOrder.LITTLE_ENDIAN));
+        }
+        return sum;
+    }
+
+    // The sum of one window, through a view of the element type
+    private double sumOfSquares(ByteBuffer window) {
+        double sum = 0;
+        switch (type) {
+            case 'i':
+                IntBuffer ints = window.asIntBuffer();
+                for (int i = 0, n = ints.limit(); i < n; i++) {
+                    long x = ints.get(i);
+                    sum += x * x;
+                }
+                break;
+            case 'l':
+                LongBuffer longs = window.asLongBuffer();
+                for (int i = 0, n = longs.limit(); i < n; i++) {
+                    double x = longs.get(i);
+                    sum += x * x;
+                }
+                break;
+            default:
+                DoubleBuffer doubles = window.asDoubleBuffer();
+                for (int i = 0, n = doubles.limit(); i < n; i++) {
+                    double x = doubles.get(i);
+                    sum += x * x;
+                }
+        }
+        return sum;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException   If the file couldn't be closed.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns the first element of a part when count elements are split into
+     * parts almost equal parts, part == parts gives count.
+     */
+    public static long start(long count, int parts, int part) {
+        // Split in two, so that count * part can't overflow
+        return count / parts * part + count % parts * part / parts;
+    }
+
+    /**
+     * Writes the elements [from, to) of a matrix generated like in
+     * {@link Practical5_1} to a file at their places.
+     *
+     * @param path           The file of the matrix, must already exist.
+     * @param type           "int", "long" or "double".
+     * @param from           The first element.
+     * @param to             The element after the last one.
+     * @param seed           The seed of the matrix.
+     * @param windowBytes    The largest amount of bytes generated and written at once.
+     * @throws IOException   If the file couldn't be written.
+     */
+    public static void create(String path, String type, long from, long to, long seed, long windowBytes)
+            throws IOException {
+        int elementSize = elementSize(type);
+        int window = (int) Math.max(1, Math.min(windowBytes / elementSize, Integer.MAX_VALUE / Long.BYTES));
+        int[] values = new int[(int) Math.min(window, to - from)];
+        ByteBuffer bytes = ByteBuffer.allocateDirect(values.length * elementSize).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel out = FileChannel.open(Paths.get(path), StandardOpenOption.WRITE)) {
+            for (long first = from; first < to; first += values.length) {
+                int length = (int) Math.min(values.length, to - first);
+                int[] part = (length == values.length) ? values : new int[length];
+                Practical5_1.generate(part, first, seed);
+                bytes.clear();
+                for (int value : part) {
+                    if (elementSize == Integer.BYTES) bytes.putInt(value);
+                    else if (type.equals("long")) bytes.putLong(value);
+                    else bytes.putDouble(value);
+                }
+                bytes.flip();
+                for (long position = first * elementSize; bytes.hasRemaining(); )
+                    position += out.write(bytes, position);
+            }
+        }
+    }
+
+    /**
+     * Runs the calculations and prints the norm and the reading speed of every
+     * processor in the console.
+     *
+     * @param args           The file and the type of its elements, optionally
+     *                       followed by key=value settings.
+     * @throws MPIException  If an error occurred during MPI communications.
+     * @throws IOException   If the file couldn't be read or written.
+     */
+    public static void main(String[] args) throws MPIException, IOException {
+        MPI.Init(args);
+        int rank = MPI.COMM_WORLD.getRank();
+        int np = MPI.COMM_WORLD.getSize();
+        String path = args[0], type = args[1];
+        long windowBytes = 64L << 20, created = -1, seed = 0;
+        for (int i = 2; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            if (option.length != 2) throw new IllegalArgumentException("Expected key=value, got: " + args[i]);
+            switch (option[0]) {
+                case "window":
+                    windowBytes = Long.parseLong(option[1]) << 20;
+                    break;
+                case "create":
+                    created = Long.parseLong(option[1]);
+                    break;
+                case "seed":
+                    seed = Long.parseLong(option[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option[0]);
+            }
+        }
+        PhaseTimer timer = new PhaseTimer();
+
+        if (created >= 0) {
+            // The root sets the size of the file, then every processor writes its own part
+            timer.start(PhaseTimer.GENERATION);
+            if (rank == 0)
+                try (FileChannel out = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    if (created > 0) out.write(ByteBuffer.allocate(1), created * elementSize(type) - 1);
+                }
+            MPI.COMM_WORLD.barrier();
+            create(path, type, start(created, np, rank), start(created, np, rank + 1), seed, windowBytes);
+            MPI.COMM_WORLD.barrier();
+            timer.stop();
+            if (rank == 0) System.out.println("Created " + created + " elements in " + path + '.');
+        }
+
+        MappedNorm norm = new MappedNorm(path, type, windowBytes);
+        long count = norm.count();
+        long from = start(count, np, rank), to = start(count, np, rank + 1);
+        MPI.COMM_WORLD.barrier();
+        double startTime = MPI.wtime();
+        double[] myRes = {norm.sumOfSquares(from, to)};
+        double readTime = MPI.wtime() - startTime;
+        timer.addTime(PhaseTimer.COMPUTE, readTime);
+        norm.close();
+
+        // Sending the sum of results of all processors to the root
+        timer.start(PhaseTimer.COLLECTION);
+        double[] reduced = new double[1];
+        MPI.COMM_WORLD.reduce(myRes, reduced, 1, MPI.DOUBLE, MPI.SUM, 0);
+        if (rank != 0) timer.addBytes(PhaseTimer.COLLECTION, Double.BYTES);
+        double[] report = new double[2 * np];
+        MPI.COMM_WORLD.gather(new double[]{(double) (to - from) * norm.elementSize, readTime}, 2, MPI.DOUBLE,
+                report, 2, MPI.DOUBLE, 0);
+
+        timer.start(PhaseTimer.OUTPUT);
+        if (rank == 0) {
+            for (int i = 0; i < np; i++)
+                System.out.printf("Pr%d: read %.1f MB in %.4fs, %.3f GB/s%n", i, report[2 * i] / 1e6,
+                        report[2 * i + 1], report[2 * i] / report[2 * i + 1] / 1e9);
+            System.out.println("Elements: " + count);
+            System.out.println("Reduced: " + reduced[0]);
+            System.out.println("Matrix's norm is: " + Math.sqrt(reduced[0]));
+        }
+        timer.report("MappedNorm", count);
+        MPI.Finalize();
+    }
+}
@@ -0,0 +1,153 @@
+package x74r45.norm;
+
+import mpi.Datatype;
+import mpi.Intracomm;
+import mpi.MPI;
+import mpi.MPIException;
+import mpi.Op;
+import mpi.UserFunction;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * Collects everything the Frobenius, 1-, infinity- and max-norms of a matrix
+ * need in one pass over the part of the matrix a processor has:
+ * <ul>
+ *     <li>the sum of squares, with Neumaier's compensation, so that the rounding
+ *         errors of many additions don't add up;</li>
+ *     <li>the largest absolute value;</li>
+ *     <li>the sums of absolute values of every row and every column.</li>
+ * </ul>
+ * The part is a range of the elements of the matrix row by row, so it may
+ * start and end in the middle of a row, like the chunks of Practical5_1.
+ * {@link #reduce} adds up the row and the column sums with reduceScatter, so
+ * that every processor gets the whole sums of its part of the rows and the
+ * columns, and combines the records of the processors with a user-defined
+ * MPI.Op: the records are {@link #RECORD} doubles, the sums of squares are
+ * added with compensation and the other fields take the maximum.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class NormStatistics {
+    /** The amount of doubles in a record: sum of squares, its compensation, max, max row sum, max column sum. */
+    public static final int RECORD = 5;
+
+    private final int cols;
+    private final double[] rowSums;
+    private final double[] colSums;
+    private double sum;
+    private double compensation;
+    private double maxAbs;
+
+    /**
+     * @param rows  The amount of rows of the matrix.
+     * @param cols  The amount of columns of the matrix.
+     */
+    public NormStatistics(int rows, int cols) {
+        this.cols = cols;
+        this.rowSums = new double[rows];
+        this.colSums = new double[cols];
+    }
+
+    /**
+     * Adds a part of the matrix.
+     *
+     * @param part    The elements of the part.
+     * @param offset  The index of the first element of the part in the matrix.
+     */
+    public void add(int[] part, long offset) {
+        int row = (int) (offset / cols), col = (int) (offset % cols);
+        for (int x : part) {
+            double a = Math.abs((double) x);
+            double square = a * a;
+            // Neumaier's summation keeps the low part that the addition loses
+            double t = sum + square;
+            compensation += (sum >= square) ? (sum - t) + square : (square - t) + sum;
+            sum = t;
+            if (a > maxAbs) maxAbs = a;
+            rowSums[row] += a;
+            colSums[col] += a;
+            if (++col == cols) {
+                col = 0;
+                row++;
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of squares of the elements added on this processor.
+     */
+    public double getSumOfSquares() {
+        return sum + compensation;
+    }
+
+    /**
+     * Combines the statistics of all processors. Must be called by every processor.
+     *
+     * @param comm           The communicator of the processors.
+     * @param root           The processor that gets the norms.
+     * @return               On the root: the Frobenius, 1-, infinity- and max-norms
+     *                       and the sum of squares, on the other processors: null.
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public double[] reduce(Intracomm comm, int root) throws MPIException {
+        // Every processor gets the whole sums of its part of the rows and of the columns
+        double[] myRows = reduceScatter(comm, rowSums);
+        double[] myCols = reduceScatter(comm, colSums);
+
+        DoubleBuffer record = MPI.newDoubleBuffer(RECORD);
+        record.put(0, sum).put(1, compensation).put(2, maxAbs).put(3, max(myRows)).put(4, max(myCols));
+        DoubleBuffer reduced = MPI.newDoubleBuffer(RECORD);
+        Datatype recordType = Datatype.createContiguous(RECORD, MPI.DOUBLE).commit();
+        Op combine = new Op(new Combine(), true);
+        comm.reduce(record, reduced, 1, recordType, combine, root);
+        combine.free();
+        recordType.free();
+
+        if (comm.getRank() != root) return null;
+        double sumOfSquares = reduced.get(0) + reduced.get(1);
+        return new double[]{Math.sqrt(sumOfSquares), reduced.get(4), reduced.get(3), reduced.get(2), sumOfSquares};
+    }
+
+    // Adding up a vector of all processors, each one gets an equal part of the sums
+    private static double[] reduceScatter(Intracomm comm, double[] vector) throws MPIException {
+        int np = comm.getSize();
+        int[] counts = new int[np];
+        for (int i = 0; i < np; i++) counts[i] = part(vector.length, np, i + 1) - part(vector.length, np, i);
+        double[] mine = new double[counts[comm.getRank()]];
+        comm.reduceScatter(vector, mine, counts, MPI.DOUBLE, MPI.SUM);
+        return mine;
+    }
+
+    private static int part(int length, int parts, int part) {
+        return (int) ((long) length * part / parts);
+    }
+
+    private static double max(double[] values) {
+        double max = 0;
+        for (double value : values) max = Math.max(max, value);
+        return max;
+    }
+
+    /**
+     * Combines records: inOut = in + inOut, the sums with compensation and
+     * the rest with max. MPI gives the records as direct buffers.
+     */
+    private static class Combine extends UserFunction {
+        @Override
+        public void call(ByteBuffer in, ByteBuffer inOut, int count, Datatype type) {
+            DoubleBuffer a = in.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            DoubleBuffer b = inOut.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            for (int r = 0; r < count * RECORD; r += RECORD) {
+                double x = a.get(r), y = b.get(r), t = x + y;
+                double error = (Math.abs(x) >= Math.abs(y)) ? (x - t) + y : (y - t) + x;
+                b.put(r, t);
+                b.put(r + 1, a.get(r + 1) + b.get(r + 1) + error);
+                for (int i = 2; i < RECORD; i++) b.put(r + i, Math.max(a.get(r + i), b.get(r + i)));
+            }
+        }
+    }
+}
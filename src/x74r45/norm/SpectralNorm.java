@@ -0,0 +1,165 @@
+package x74r45.norm;
+
+import mpi.MPI;
+import mpi.MPIException;
+import x74r45.Practical5_1;
+import x74r45.scaling.PhaseTimer;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Estimates the spectral norm (2-norm) of a matrix in parallel with the power
+ * iteration on A^T A: the norm is the square root of its largest eigenvalue.
+ * Every processor keeps only its block of rows of A for the whole run, so an
+ * iteration is
+ * <ol>
+ *     <li>y = A x on the rows of A, every processor keeps its own part of y;</li>
+ *     <li>z = A^T y: every processor multiplies its rows by its part of y, the
+ *         partial vectors are added up with reduceScatter, so that every processor
+ *         gets its part of z, and the squared lengths of y and z are summed with
+ *         one allReduce;</li>
+ *     <li>x = z / |z|, the parts of x are put together with allGatherv.</li>
+ * </ol>
+ * Since |x| = 1, |y| = |A x| is the estimate of the norm, which grows to it
+ * from below. The iteration stops when the estimate changes by less than the
+ * tolerance relative to itself. The vectors are direct buffers allocated
+ * before the first iteration, so the iterations don't allocate anything.
+ * The matrix is the same one {@link Practical5_1} generates for the seed.
+ * Run this class with the following arguments:
+ * <ul>
+ *     <li>size          - n for an n x n matrix or m x n.</li>
+ *     <li>tolerance     - Optional, the relative change to stop at, 1e-10 by default.</li>
+ *     <li>maxIterations - Optional, 1000 by default.</li>
+ *     <li>seed          - Optional, the seed of the matrix, 0 by default.</li>
+ * </ul>
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class SpectralNorm {
+
+    /**
+     * Runs the iteration and prints the norm and the speed in the console.
+     *
+     * @param args           The size of the matrix, optionally followed by the
+     *                       tolerance, the amount of iterations and the seed.
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public static void main(String[] args) throws MPIException {
+        MPI.Init(args);
+
+        // Initial data
+        int rank = MPI.COMM_WORLD.getRank();
+        int np = MPI.COMM_WORLD.getSize();
+        String[] sizes = args[0].split("x");
+        int m = Integer.parseInt(sizes[0]);
+        int n = (sizes.length == 2) ? Integer.parseInt(sizes[1]) : m;
+        double tolerance = (args.length > 1) ? Double.parseDouble(args[1]) : 1e-10;
+        int maxIterations = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+        long seed = (args.length > 3) ? Long.parseLong(args[3]) : 0;
+        PhaseTimer timer = new PhaseTimer();
+
+        // Calculating displacements of the rows of A (parts of y) and of the parts of x
+        int[] rowDispls = IntStream.range(0, np).map(x -> (int) ((long) m * x / np)).toArray();
+        int[] rowCounts = IntStream.range(0, np)
+                .map(x -> (x == np-1) ? m - rowDispls[x] : rowDispls[x + 1] - rowDispls[x])
+                .toArray();
+        int[] colDispls = IntStream.range(0, np).map(x -> (int) ((long) n * x / np)).toArray();
+        int[] colCounts = IntStream.range(0, np)
+                .map(x -> (x == np-1) ? n - colDispls[x] : colDispls[x + 1] - colDispls[x])
+                .toArray();
+        int myRows = rowCounts[rank], myCols = colCounts[rank];
+
+        // Every processor generates only its block of rows of A
+        timer.start(PhaseTimer.GENERATION);
+        double[] a = new double[myRows * n];
+        int[] row = new int[n];
+        for (int i = 0; i < myRows; i++) {
+            Practical5_1.generate(row, (long) (rowDispls[rank] + i) * n, seed);
+            for (int j = 0; j < n; j++) a[i * n + j] = row[j];
+        }
+
+        // A random start vector, the same on every processor
+        DoubleBuffer x = MPI.newDoubleBuffer(n), z = MPI.newDoubleBuffer(n), myX = MPI.newDoubleBuffer(myCols);
+        DoubleBuffer lengths = MPI.newDoubleBuffer(2);
+        double[] vector = new double[n], partial = new double[n], myY = new double[myRows];
+        SplittableRandom rand = new SplittableRandom(seed);
+        double length = 0;
+        for (int j = 0; j < n; j++) {
+            vector[j] = rand.nextDouble() - 0.5;
+            length += vector[j] * vector[j];
+        }
+        length = Math.sqrt(length);
+        for (int j = 0; j < n; j++) x.put(j, vector[j] / length);
+        timer.stop();
+
+        MPI.COMM_WORLD.barrier();
+        double startTime = MPI.wtime();
+        double norm = 0, change = Double.POSITIVE_INFINITY;
+        int iterations = 0;
+        while (iterations < maxIterations && change > tolerance) {
+            // y = A x on the own rows
+            timer.start(PhaseTimer.COMPUTE);
+            x.clear();
+            x.get(vector, 0, n);
+            double yLength = 0;
+            for (int i = 0; i < myRows; i++) {
+                myY[i] = dot(a, i * n, vector, n);
+                yLength += myY[i] * myY[i];
+            }
+
+            // z = A^T y, the own rows give a part of the sum for every element of z
+            Arrays.fill(partial, 0);
+            for (int i = 0; i < myRows; i++)
+                for (int j = 0, offset = i * n; j < n; j++) partial[j] += a[offset + j] * myY[i];
+            z.clear();
+            z.put(partial, 0, n);
+            timer.start(PhaseTimer.COLLECTION);
+            MPI.COMM_WORLD.reduceScatter(z, myX, colCounts, MPI.DOUBLE, MPI.SUM);
+            timer.addBytes(PhaseTimer.COLLECTION, 8L * (n - myCols));
+
+            // The parts of z are kept in myX until they're normalized
+            timer.start(PhaseTimer.COMPUTE);
+            double zLength = 0;
+            for (int j = 0; j < myCols; j++) zLength += myX.get(j) * myX.get(j);
+            timer.start(PhaseTimer.COLLECTION);
+            lengths.put(0, yLength).put(1, zLength);
+            MPI.COMM_WORLD.allReduce(lengths, 2, MPI.DOUBLE, MPI.SUM);
+            timer.addBytes(PhaseTimer.COLLECTION, 16);
+
+            // x = z / |z|
+            timer.start(PhaseTimer.COMPUTE);
+            double estimate = Math.sqrt(lengths.get(0));
+            change = Math.abs(estimate - norm) / estimate;
+            norm = estimate;
+            iterations++;
+            if (lengths.get(1) == 0) break;
+            double scale = 1 / Math.sqrt(lengths.get(1));
+            for (int j = 0; j < myCols; j++) myX.put(j, myX.get(j) * scale);
+            timer.start(PhaseTimer.DISTRIBUTION);
+            MPI.COMM_WORLD.allGatherv(myX, myCols, MPI.DOUBLE, x, colCounts, colDispls, MPI.DOUBLE);
+            timer.addBytes(PhaseTimer.DISTRIBUTION, 8L * myCols * (np - 1));
+        }
+        timer.stop();
+        double time = MPI.wtime() - startTime;
+
+        timer.start(PhaseTimer.OUTPUT);
+        if (rank == 0) {
+            System.out.println("Matrix's spectral norm is: " + norm);
+            System.out.printf("%d iterations (relative change %.3e) in %.4fs: %.1f iterations/s%n",
+                    iterations, change, time, iterations / time);
+        }
+        timer.report("SpectralNorm", Math.max(m, n));
+        MPI.Finalize();
+    }
+
+    // The product of a row of a matrix and a vector
+    private static double dot(double[] matrix, int offset, double[] vector, int length) {
+        double sum = 0;
+        for (int j = 0; j < length; j++) sum += matrix[offset + j] * vector[j];
+        return sum;
+    }
+}
@@ -2,6 +2,7 @@ package x74r45.practical4;
 
 import mpi.MPI;
 import mpi.MPIException;
+import x74r45.scaling.PhaseTimer;
 
 import java.util.Arrays;
 import java.util.Random;
@@ -20,19 +21,27 @@ public class Task1 {
         int myRank = MPI.COMM_WORLD.getRank();
         int n = Integer.parseInt(args[0]);
         int[] arr = new int[n];
+        PhaseTimer timer = new PhaseTimer();
 
         // Generating input array
         if (myRank == 2) {
+            timer.start(PhaseTimer.GENERATION);
             Random rand = new Random();
             for (int i = 0; i < n; i++) arr[i] = rand.nextInt(100);
+            timer.start(PhaseTimer.OUTPUT);
             System.out.print("rank = " + myRank + ": arr = " + Arrays.toString(arr) + '\n');
+            timer.stop();
         }
 
         // Copying array values to all other processors
         MPI.COMM_WORLD.barrier();
+        timer.start(PhaseTimer.DISTRIBUTION);
         MPI.COMM_WORLD.bcast(arr, n, MPI.INT, 2);
+        if (myRank == 2) timer.addBytes(PhaseTimer.DISTRIBUTION, 4L * n * (MPI.COMM_WORLD.getSize() - 1));
+        timer.start(PhaseTimer.OUTPUT);
         System.out.print("rank = " + myRank + ": arr = " + Arrays.toString(arr) + '\n');
 
+        timer.report("Task1", n);
         MPI.Finalize();
     }
 }
@@ -1,6 +1,7 @@
 package x74r45.practical4;
 
 import mpi.MPI;
+import x74r45.scaling.PhaseTimer;
 
 import java.util.Arrays;
 import java.util.Random;
@@ -20,19 +21,26 @@ public class Task2 {
         int np = MPI.COMM_WORLD.getSize();
         int n = Integer.parseInt(args[0]);
         int[] arr = new int[n];
+        PhaseTimer timer = new PhaseTimer();
 
         // Generating input
+        timer.start(PhaseTimer.GENERATION);
         Random rand = new Random();
         for (int i = 0; i < n; i++) arr[i] = rand.nextInt(100);
+        timer.start(PhaseTimer.OUTPUT);
         System.out.print("rank = " + myRank + ": arr = " + Arrays.toString(arr) + '\n');
 
         // Sending the input from all processors to one (with rank == 1)
+        timer.start(PhaseTimer.COLLECTION);
         int[] received = new int[n * np];
         MPI.COMM_WORLD.gather(arr, n, MPI.INT, received, n, MPI.INT, 1);
+        if (myRank != 1) timer.addBytes(PhaseTimer.COLLECTION, 4L * n);
+        timer.start(PhaseTimer.OUTPUT);
         if (myRank == 1) {
             System.out.print("rank = " + myRank + ": received = " + Arrays.toString(received) + '\n');
         }
 
+        timer.report("Task2", n);
         MPI.Finalize();
     }
 }
@@ -2,6 +2,7 @@ package x74r45.practical4;
 
 import mpi.MPI;
 import mpi.MPIException;
+import x74r45.scaling.PhaseTimer;
 
 import java.util.Arrays;
 import java.util.Random;
@@ -22,13 +23,17 @@ public class Task3 {
         int np = MPI.COMM_WORLD.getSize();
         int n = (myRank + 1) * 5;
         int[] arr = new int[n];
+        PhaseTimer timer = new PhaseTimer();
 
         // Generating input
+        timer.start(PhaseTimer.GENERATION);
         Random rand = new Random();
         for (int i = 0; i < n; i++) arr[i] = rand.nextInt(100);
+        timer.start(PhaseTimer.OUTPUT);
         System.out.print("rank = " + myRank + ": arr = " + Arrays.toString(arr) + '\n');
 
         // Gathering different sizes of input from different processors
+        timer.start(PhaseTimer.COLLECTION);
         int[] recvcount = IntStream.range(1, np + 1).map(x -> 5 * x).toArray();
         int[] displs = IntStream.range(0, np).map(x -> {
             int displ = 0;
@@ -37,11 +42,14 @@ public class Task3 {
         }).toArray();
         int[] received = new int[Arrays.stream(recvcount).sum()];
         MPI.COMM_WORLD.gatherv(arr, n, MPI.INT, received, recvcount, displs, MPI.INT, 3);
+        if (myRank != 3) timer.addBytes(PhaseTimer.COLLECTION, 4L * n);
 
+        timer.start(PhaseTimer.OUTPUT);
         if (myRank == 3) {
             System.out.print("rank = " + myRank + ": received = " + Arrays.toString(received) + '\n');
         }
 
+        timer.report("Task3", received.length);
         MPI.Finalize();
     }
 }
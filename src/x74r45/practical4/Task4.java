@@ -2,6 +2,7 @@ package x74r45.practical4;
 
 import mpi.MPI;
 import mpi.MPIException;
+import x74r45.scaling.PhaseTimer;
 
 import java.util.Arrays;
 import java.util.Random;
@@ -19,8 +20,10 @@ public class Task4 {
 
         int myRank = MPI.COMM_WORLD.getRank();
         int np = MPI.COMM_WORLD.getSize();
+        PhaseTimer timer = new PhaseTimer();
 
         // Generating input and calculating sendcount and displs
+        timer.start(PhaseTimer.GENERATION);
         int[] sendcount = IntStream.range(0, np).map(x -> (int) Math.pow(2, x)).toArray();
         int[] displs = IntStream.range(0, np).map(x -> {
             int displ = 0;
@@ -31,16 +34,22 @@ public class Task4 {
         if (myRank == 2) {
             Random rand = new Random();
             for (int i = 0; i < arr.length; i++) arr[i] = rand.nextInt(100);
+            timer.start(PhaseTimer.OUTPUT);
             System.out.print("rank = " + myRank + ": a = " + Arrays.toString(arr) + '\n');
         }
+        timer.stop();
 
         // Scattering the input between all processors
         int[] received = new int[sendcount[myRank]];
         MPI.COMM_WORLD.barrier();
+        timer.start(PhaseTimer.DISTRIBUTION);
         MPI.COMM_WORLD.scatterv(arr, sendcount, displs, MPI.INT, received,
                 sendcount[myRank], MPI.INT, 2);
+        if (myRank == 2) timer.addBytes(PhaseTimer.DISTRIBUTION, 4L * (arr.length - sendcount[myRank]));
+        timer.start(PhaseTimer.OUTPUT);
         System.out.print("rank = " + myRank + ": received = " + Arrays.toString(received) + '\n');
 
+        timer.report("Task4", arr.length);
         MPI.Finalize();
     }
 }
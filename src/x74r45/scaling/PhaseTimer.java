@@ -0,0 +1,96 @@
+package x74r45.scaling;
+
+import mpi.MPI;
+import mpi.MPIException;
+
+import java.util.Locale;
+
+/**
+ * Measures the phases of an MPI program with MPI.wtime(): generating the
+ * input, distributing it, computing, collecting the results and printing or
+ * writing them. A phase can be started any number of times, its time is the
+ * sum of all of them, and starting a phase stops the previous one. Every
+ * phase also counts the bytes the processor sent or received in it, as
+ * reported by the program.
+ * At the end {@link #report} prints one line on the root that starts with
+ * "Phases: " and continues with a JSON object: the time of every phase on the
+ * slowest processor and the bytes of all processors together.
+ * {@link ScalingRunner} reads these lines.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class PhaseTimer {
+    public static final int GENERATION = 0;
+    public static final int DISTRIBUTION = 1;
+    public static final int COMPUTE = 2;
+    public static final int COLLECTION = 3;
+    public static final int OUTPUT = 4;
+    /** The names of the phases in the report. */
+    public static final String[] PHASES = {"generation", "distribution", "compute", "collection", "output"};
+
+    private final double[] seconds = new double[PHASES.length];
+    private final long[] bytes = new long[PHASES.length];
+    private int current = -1;
+    private double started;
+
+    /**
+     * Stops the current phase and starts another one.
+     *
+     * @param phase          The phase, e.g. {@link #COMPUTE}.
+     * @throws MPIException  If MPI.wtime() failed.
+     */
+    public void start(int phase) throws MPIException {
+        stop();
+        current = phase;
+        started = MPI.wtime();
+    }
+
+    /**
+     * Stops the current phase, if there is one, so that the next code isn't measured.
+     *
+     * @throws MPIException  If MPI.wtime() failed.
+     */
+    public void stop() throws MPIException {
+        if (current >= 0) seconds[current] += MPI.wtime() - started;
+        current = -1;
+    }
+
+    /**
+     * Adds a time the program measured by itself to a phase.
+     */
+    public void addTime(int phase, double time) {
+        seconds[phase] += time;
+    }
+
+    /**
+     * Adds bytes this processor sent or received to a phase.
+     */
+    public void addBytes(int phase, long count) {
+        bytes[phase] += count;
+    }
+
+    /**
+     * Stops the current phase and prints the report on the root.
+     * Must be called by every processor.
+     *
+     * @param program        The name of the program.
+     * @param size           The size of the problem, in the program's own units.
+     * @throws MPIException  If an error occurred during MPI communications.
+     */
+    public void report(String program, long size) throws MPIException {
+        stop();
+        double[] slowest = new double[PHASES.length];
+        long[] total = new long[PHASES.length];
+        MPI.COMM_WORLD.reduce(seconds, slowest, PHASES.length, MPI.DOUBLE, MPI.MAX, 0);
+        MPI.COMM_WORLD.reduce(bytes, total, PHASES.length, MPI.LONG, MPI.SUM, 0);
+        if (MPI.COMM_WORLD.getRank() != 0) return;
+
+        StringBuilder json = new StringBuilder(String.format(Locale.ROOT, "{\"program\": \"%s\", \"np\": %d, \"size\": %d",
+                program, MPI.COMM_WORLD.getSize(), size));
+        for (int phase = 0; phase < PHASES.length; phase++)
+            json.append(String.format(Locale.ROOT, ", \"%s\": %.6f, \"%sBytes\": %d",
+                    PHASES[phase], slowest[phase], PHASES[phase], total[phase]));
+        System.out.print("Phases: " + json.append('}') + '\n');
+    }
+}
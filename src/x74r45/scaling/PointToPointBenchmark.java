@@ -0,0 +1,315 @@
+package x74r45.scaling;
+
+import mpi.MPI;
+import mpi.MPIException;
+import mpi.Request;
+
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures point-to-point messages of the Java bindings in the style of the
+ * OSU micro-benchmarks, with the patterns of {@link x74r45.Practical3}:
+ * <ul>
+ *     <li>latency   - ping-pong between processors 0 and 1, half of a round trip;</li>
+ *     <li>bandwidth - processor 0 sends a window of messages to processor 1,
+ *                     which answers with one byte after the whole window;</li>
+ *     <li>ring      - the message goes around all processors, 0 -> 1 -> ... -> np-1 -> 0,
+ *                     the time of a round divided by np.</li>
+ * </ul>
+ * Every size from min to max bytes (powers of 2) is measured with every
+ * combination of
+ * <ul>
+ *     <li>buffers - heap byte[] arrays, which the bindings copy, or direct
+ *                   ByteBuffers from MPI.newByteBuffer, which MPI uses in place;</li>
+ *     <li>calls   - blocking send/recv or non-blocking iSend/iRecv. The bindings
+ *                   only accept direct buffers in non-blocking calls, so heap
+ *                   buffers are measured with blocking calls only.</li>
+ * </ul>
+ * Messages up to the eager limit are sent at once and buffered by the
+ * receiver, the larger ones wait for the receiver (rendezvous). The limit is
+ * set by the transport, e.g. 4096 bytes for shared memory in Open MPI
+ * (btl_vader_eager_limit); it can't be read from Java, so the limit the
+ * messages are labelled with is a setting, and the real one is changed with
+ * mpirun --mca btl_vader_eager_limit. The latencies are reported as
+ * percentiles of the iterations, the bandwidth in MB/s.
+ * Run this class with at least 2 processors and optional key=value settings:
+ * <ul>
+ *     <li>tests      - Comma separated tests, "latency,bandwidth,ring" by default.</li>
+ *     <li>min, max   - The smallest and the largest message, 1 and 64M by default
+ *                      (K and M suffixes are allowed).</li>
+ *     <li>buffers    - "heap,direct" by default.</li>
+ *     <li>calls      - "blocking,nonblocking" by default.</li>
+ *     <li>iterations - The amount of measured iterations, by default 1000 for
+ *                      messages up to 8K and 100 for larger ones.</li>
+ *     <li>eager      - The eager limit in bytes for the labels, 4096 by default.</li>
+ *     <li>output     - A CSV file for the results, none by default.</li>
+ * </ul>
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class PointToPointBenchmark {
+    private static final int TAG = 74;
+    // The messages of the bandwidth test sent before an answer, like in osu_bw
+    private static final int WINDOW = 64;
+    // Messages above this size are measured with fewer iterations, like in the OSU benchmarks
+    private static final int LARGE = 8192;
+
+    private final int rank;
+    private final int np;
+    private final boolean direct;
+    private final boolean blocking;
+    // Messages are sent from one buffer and received into the other, like s_buf and r_buf in OSU
+    private final byte[] sendHeap;
+    private final byte[] recvHeap;
+    private final ByteBuffer sendBuffer;
+    private final ByteBuffer recvBuffer;
+    private final ByteBuffer answer = MPI.newByteBuffer(1);
+    private final Request[] requests = new Request[WINDOW];
+
+    /**
+     * @param direct     Whether to send direct buffers instead of heap arrays.
+     * @param blocking   Whether to use blocking calls.
+     * @param maxSize    The largest message.
+     */
+    public PointToPointBenchmark(boolean direct, boolean blocking, int maxSize) throws MPIException {
+        if (!direct && !blocking)
+            throw new IllegalArgumentException("Non-blocking calls need direct buffers.");
+        this.rank = MPI.COMM_WORLD.getRank();
+        this.np = MPI.COMM_WORLD.getSize();
+        this.direct = direct;
+        this.blocking = blocking;
+        this.sendHeap = direct ? null : new byte[maxSize];
+        this.recvHeap = direct ? null : new byte[maxSize];
+        this.sendBuffer = direct ? MPI.newByteBuffer(maxSize) : null;
+        this.recvBuffer = direct ? MPI.newByteBuffer(maxSize) : null;
+    }
+
+    // Sends a message, a non-blocking send returns its request
+    private Request send(int size, int dest) throws MPIException {
+        if (!blocking) return MPI.COMM_WORLD.iSend(sendBuffer, size, MPI.BYTE, dest, TAG);
+        MPI.COMM_WORLD.send(direct ? sendBuffer : sendHeap, size, MPI.BYTE, dest, TAG);
+        return null;
+    }
+
+    // Receives a message, a non-blocking receive returns its request
+    private Request recv(int size, int source) throws MPIException {
+        if (!blocking) return MPI.COMM_WORLD.iRecv(recvBuffer, size, MPI.BYTE, source, TAG);
+        MPI.COMM_WORLD.recv(direct ? recvBuffer : recvHeap, size, MPI.BYTE, source, TAG);
+        return null;
+    }
+
+    private static void waitFor(Request request) throws MPIException {
+        if (request != null) request.waitFor();
+    }
+
+    /**
+     * Measures the ping-pong between processors 0 and 1.
+     *
+     * @return  The one-way latency of every iteration in seconds on processor 0, null on the others.
+     */
+    public double[] latency(int size, int iterations, int skip) throws MPIException {
+        double[] times = new double[iterations];
+        MPI.COMM_WORLD.barrier();
+        for (int i = -skip; i < iterations && rank < 2; i++) {
+            double start = MPI.wtime();
+            if (rank == 0) {
+                // The answer's receive is posted first, so it never waits for a buffer
+                Request reply = blocking ? null : recv(size, 1);
+                waitFor(send(size, 1));
+                if (blocking) recv(size, 1);
+                else waitFor(reply);
+            } else {
+                waitFor(recv(size, 0));
+                waitFor(send(size, 0));
+            }
+            if (i >= 0) times[i] = (MPI.wtime() - start) / 2;
+        }
+        return (rank == 0) ? times : null;
+    }
+
+    /**
+     * Measures windows of messages from processor 0 to processor 1.
+     *
+     * @return  The bandwidth in MB/s on processor 0, 0 on the others.
+     */
+    public double bandwidth(int size, int iterations, int skip) throws MPIException {
+        // The window is smaller for large messages, so that a window sends at most 64M
+        int window = (int) Math.max(1, Math.min(WINDOW, (64L << 20) / size));
+        double start = 0;
+        MPI.COMM_WORLD.barrier();
+        for (int i = -skip; i < iterations && rank < 2; i++) {
+            if (i == 0) start = MPI.wtime();
+            if (rank == 0) {
+                for (int w = 0; w < window; w++) requests[w] = send(size, 1);
+                waitAll(window);
+                MPI.COMM_WORLD.recv(answer, 1, MPI.BYTE, 1, TAG + 1);
+            } else {
+                for (int w = 0; w < window; w++) requests[w] = recv(size, 0);
+                waitAll(window);
+                MPI.COMM_WORLD.send(answer, 1, MPI.BYTE, 0, TAG + 1);
+            }
+        }
+        return (rank == 0) ? (double) size * window * iterations / (MPI.wtime() - start) / 1e6 : 0;
+    }
+
+    private void waitAll(int count) throws MPIException {
+        for (int w = 0; w < count; w++) waitFor(requests[w]);
+    }
+
+    /**
+     * Passes the message around all processors like Practical3: processor 0
+     * sends it to 1 and waits for it from np-1, the others pass it on.
+     *
+     * @return  The time of a hop of every round in seconds on processor 0, null on the others.
+     */
+    public double[] ring(int size, int iterations, int skip) throws MPIException {
+        double[] times = new double[iterations];
+        int next = (rank + 1) % np, previous = (rank + np - 1) % np;
+        MPI.COMM_WORLD.barrier();
+        for (int i = -skip; i < iterations; i++) {
+            double start = MPI.wtime();
+            if (rank == 0) {
+                Request back = blocking ? null : recv(size, previous);
+                waitFor(send(size, next));
+                if (blocking) recv(size, previous);
+                else waitFor(back);
+            } else {
+                waitFor(recv(size, previous));
+                waitFor(send(size, next));
+            }
+            if (i >= 0) times[i] = (MPI.wtime() - start) / np;
+        }
+        return (rank == 0) ? times : null;
+    }
+
+    /**
+     * Runs the benchmarks and prints the results on processor 0.
+     *
+     * @param args           Optional key=value settings.
+     * @throws MPIException  If an error occurred during MPI communications.
+     * @throws FileNotFoundException  If the CSV file couldn't be created.
+     */
+    public static void main(String[] args) throws MPIException, FileNotFoundException {
+        MPI.Init(args);
+        int rank = MPI.COMM_WORLD.getRank();
+        int np = MPI.COMM_WORLD.getSize();
+        if (np < 2) throw new IllegalArgumentException("The benchmark needs at least 2 processors.");
+
+        String tests = "latency,bandwidth,ring", buffers = "heap,direct", calls = "blocking,nonblocking", output = null;
+        int minSize = 1, maxSize = 64 << 20, iterations = 0, eager = 4096;
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) throw new IllegalArgumentException("Expected key=value, got: " + arg);
+            switch (option[0]) {
+                case "tests":
+                    tests = option[1];
+                    break;
+                case "min":
+                    minSize = parseSize(option[1]);
+                    break;
+                case "max":
+                    maxSize = parseSize(option[1]);
+                    break;
+                case "buffers":
+                    buffers = option[1];
+                    break;
+                case "calls":
+                    calls = option[1];
+                    break;
+                case "iterations":
+                    iterations = Integer.parseInt(option[1]);
+                    break;
+                case "eager":
+                    eager = parseSize(option[1]);
+                    break;
+                case "output":
+                    output = option[1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option[0]);
+            }
+        }
+
+        List<String> rows = new ArrayList<>();
+        if (rank == 0) System.out.printf("%-9s %-6s %-11s %9s %-10s %10s %10s %10s %10s %10s%n", "test", "buffer",
+                "calls", "bytes", "protocol", "p50 us", "p90 us", "p99 us", "max us", "MB/s");
+        for (String bufferKind : buffers.split(","))
+            for (String callKind : calls.split(",")) {
+                boolean direct = bufferKind.equals("direct"), blocking = callKind.equals("blocking");
+                if (!direct && !blocking) continue;
+                // Buffers of the largest size for all tests of a combination
+                PointToPointBenchmark benchmark = new PointToPointBenchmark(direct, blocking, maxSize);
+                for (String test : tests.split(","))
+                    for (long size = minSize; size <= maxSize; size *= 2) {
+                        int bytes = (int) size;
+                        int count = (iterations > 0) ? iterations : (bytes > LARGE) ? 100 : 1000;
+                        int skip = Math.max(1, count / 10);
+                        double[] times = null;
+                        double bandwidth;
+                        switch (test) {
+                            case "latency":
+                                times = benchmark.latency(bytes, count, skip);
+                                bandwidth = 0;
+                                break;
+                            case "bandwidth":
+                                bandwidth = benchmark.bandwidth(bytes, count, skip);
+                                break;
+                            case "ring":
+                                times = benchmark.ring(bytes, count, skip);
+                                bandwidth = 0;
+                                break;
+                            default:
+                                throw new IllegalArgumentException("Unknown test: " + test);
+                        }
+                        if (rank != 0) continue;
+
+                        double[] percentiles = {0, 0, 0, 0};
+                        if (times != null) {
+                            Arrays.sort(times);
+                            percentiles = new double[]{percentile(times, 0.5), percentile(times, 0.9),
+                                    percentile(times, 0.99), times[times.length - 1]};
+                            bandwidth = bytes / percentiles[0] / 1e6;
+                        }
+                        String protocol = (bytes <= eager) ? "eager" : "rendezvous";
+                        System.out.printf(Locale.ROOT, "%-9s %-6s %-11s %9d %-10s %10.2f %10.2f %10.2f %10.2f %10.1f%n",
+                                test, bufferKind, callKind, bytes, protocol, percentiles[0] * 1e6, percentiles[1] * 1e6,
+                                percentiles[2] * 1e6, percentiles[3] * 1e6, bandwidth);
+                        rows.add(String.format(Locale.ROOT, "%s,%s,%s,%d,%s,%.3f,%.3f,%.3f,%.3f,%.3f", test, bufferKind,
+                                callKind, bytes, protocol, percentiles[0] * 1e6, percentiles[1] * 1e6,
+                                percentiles[2] * 1e6, percentiles[3] * 1e6, bandwidth));
+                    }
+            }
+
+        if (rank == 0 && output != null) {
+            try (PrintWriter csv = new PrintWriter(output)) {
+                csv.println("test,buffer,calls,bytes,protocol,p50_us,p90_us,p99_us,max_us,mb_per_s");
+                rows.forEach(csv::println);
+            }
+            System.out.println("The results are saved to " + output + '.');
+        }
+        MPI.Finalize();
+    }
+
+    // The smallest time that at least a share of the sorted times doesn't exceed
+    private static double percentile(double[] sorted, double share) {
+        return sorted[Math.max(0, (int) Math.ceil(share * sorted.length) - 1)];
+    }
+
+    // A positive size in bytes with an optional K or M suffix
+    private static int parseSize(String size) {
+        char unit = Character.toUpperCase(size.charAt(size.length() - 1));
+        int shift = (unit == 'K') ? 10 : (unit == 'M') ? 20 : 0;
+        long bytes = Long.parseLong((shift == 0) ? size : size.substring(0, size.length() - 1)) << shift;
+        // The sizes double until they reach the largest one, which never happens from 0
+        if (bytes < 1 || bytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Sizes must be positive and fit in an int, got: " + size);
+        return (int) bytes;
+    }
+}
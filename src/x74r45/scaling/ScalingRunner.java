@@ -0,0 +1,238 @@
+package x74r45.scaling;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the MPI programs of the project with mpirun on the local machine for
+ * a range of processor amounts and collects the "Phases: " lines their
+ * {@link PhaseTimer} prints. Every run is repeated and the fastest one is kept.
+ * <ul>
+ *     <li>Strong scaling keeps the size of the problem and reports the speedup
+ *         T(np0) / T(np) and the efficiency T(np0) np0 / (T(np) np).</li>
+ *     <li>Weak scaling grows the size with np, so that every processor has the
+ *         same amount of work (e.g. the side of a matrix grows as the square root
+ *         of np for the norm and as the cube root for the multiplication), and
+ *         reports the efficiency T(np0) / T(np) and the scaled speedup.</li>
+ * </ul>
+ * T is the sum of the phases without the output, because the programs print
+ * their data to the console and that would be measured instead of the work;
+ * np0 is the smallest amount of processors the program ran with. The results
+ * are printed and saved to a CSV and a JSON file.
+ * Run this class (without mpirun) with optional key=value settings:
+ * <ul>
+ *     <li>programs - Comma separated names of the programs, all by default:
+ *                    {@value #ALL}.</li>
+ *     <li>np       - Comma separated amounts of processors, "1,2,4" by default.
+ *                    Programs that need more processors than given skip the smaller amounts.</li>
+ *     <li>scaling  - "strong", "weak" or "both" (default).</li>
+ *     <li>size     - The size of the problem for strong scaling and for np0
+ *                    in weak scaling, every program has its own default.</li>
+ *     <li>repeats  - The amount of runs of every configuration, 3 by default.</li>
+ *     <li>output   - The name of the CSV and JSON files without the extension, "scaling" by default.</li>
+ *     <li>mpirun   - The mpirun command, "mpirun --oversubscribe" by default.</li>
+ * </ul>
+ * The programs are started with the same JVM and classpath as the runner.
+ *
+ * @author Taras Kreshchenko
+ * @version 1.0
+ */
+public class ScalingRunner {
+    private static final String ALL = "Practical3,Task1,Task2,Task3,Task4,Practical5_1,Practical5_2,DoubleComplexTesting,Summa,SpectralNorm,MappedNorm";
+    private static final Pattern FIELD = Pattern.compile("\"(\\w+)\": (\"[^\"]*\"|[-0-9.eE]+)");
+
+    /**
+     * A program and how to run it.
+     */
+    private static class Workload {
+        private final String name;
+        private final String mainClass;
+        private final int minProcessors;
+        // The power of the size the work grows with, 0 if weak scaling keeps the size: the work
+        // doesn't depend on it or every processor already gets all of it, like in a broadcast
+        private final int dimension;
+        private final int defaultSize;
+
+        Workload(String name, String mainClass, int minProcessors, int dimension, int defaultSize) {
+            this.name = name;
+            this.mainClass = mainClass;
+            this.minProcessors = minProcessors;
+            this.dimension = dimension;
+            this.defaultSize = defaultSize;
+        }
+
+        // The arguments of the program for a size
+        List<String> arguments(int size) {
+            switch (name) {
+                case "Practical3":
+                    return List.of("1");
+                case "Task3":
+                case "Task4":
+                    return List.of();
+                case "Practical5_2":
+                    return List.of(String.valueOf(size), "64", "1", "2");
+                case "DoubleComplexTesting":
+                    return List.of("-2", "-1.5", "3", "mode=headless", "imageSize=" + size,
+                            "output=" + new File(System.getProperty("java.io.tmpdir"), "scaling.ppm"));
+                case "SpectralNorm":
+                    // A negative tolerance never stops the iteration, so every run does the same work
+                    return List.of(String.valueOf(size), "-1", "100");
+                case "MappedNorm":
+                    return List.of(new File(System.getProperty("java.io.tmpdir"), "scaling.matrix").getPath(), "int",
+                            "create=" + (long) size * size);
+                default:
+                    return List.of(String.valueOf(size));
+            }
+        }
+    }
+
+    private static final Workload[] WORKLOADS = {
+            new Workload("Practical3", "x74r45.Practical3", 1, 0, 0),
+            new Workload("Task1", "x74r45.practical4.Task1", 3, 0, 10000),
+            new Workload("Task2", "x74r45.practical4.Task2", 2, 0, 10000),
+            new Workload("Task3", "x74r45.practical4.Task3", 4, 0, 0),
+            new Workload("Task4", "x74r45.practical4.Task4", 3, 0, 0),
+            new Workload("Practical5_1", "x74r45.Practical5_1", 1, 2, 300),
+            new Workload("Practical5_2", "x74r45.Practical5_2", 1, 3, 256),
+            new Workload("DoubleComplexTesting", "x74r45.finalTask.DoubleComplexTesting", 1, 2, 400),
+            new Workload("Summa", "x74r45.multiplication.Summa", 1, 3, 512),
+            new Workload("SpectralNorm", "x74r45.norm.SpectralNorm", 1, 2, 1000),
+            new Workload("MappedNorm", "x74r45.norm.MappedNorm", 1, 2, 2000)
+    };
+
+    /**
+     * Runs the benchmarks and saves the results.
+     *
+     * @param args                   Optional key=value settings.
+     * @throws IOException           If a program couldn't be started or the results couldn't be saved.
+     * @throws InterruptedException  If the runner was interrupted while waiting for a program.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("programs", ALL);
+        options.put("np", "1,2,4");
+        options.put("scaling", "both");
+        options.put("repeats", "3");
+        options.put("output", "scaling");
+        options.put("mpirun", "mpirun --oversubscribe");
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) throw new IllegalArgumentException("Expected key=value, got: " + arg);
+            if (!options.containsKey(option[0]) && !option[0].equals("size"))
+                throw new IllegalArgumentException("Unknown option: " + option[0]);
+            options.put(option[0], option[1]);
+        }
+        int[] processors = Arrays.stream(options.get("np").split(",")).mapToInt(Integer::parseInt).sorted().toArray();
+        int repeats = Integer.parseInt(options.get("repeats"));
+        String scaling = options.get("scaling");
+        List<String> modes = scaling.equals("both") ? List.of("strong", "weak") : List.of(scaling);
+
+        List<Map<String, String>> results = new ArrayList<>();
+        for (String name : options.get("programs").split(",")) {
+            Workload workload = Arrays.stream(WORKLOADS).filter(w -> w.name.equals(name)).findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown program: " + name));
+            int baseSize = options.containsKey("size") ? Integer.parseInt(options.get("size")) : workload.defaultSize;
+            for (String mode : modes) {
+                Map<String, String> base = null;
+                int baseProcessors = 0;
+                for (int np : processors) {
+                    if (np < workload.minProcessors) continue;
+                    if (base == null) baseProcessors = np;
+                    int size = (mode.equals("weak") && workload.dimension > 0)
+                            ? (int) Math.round(baseSize * Math.pow((double) np / baseProcessors, 1.0 / workload.dimension))
+                            : baseSize;
+                    Map<String, String> result = fastest(workload, np, size, repeats, options.get("mpirun"));
+                    if (result == null) continue;
+                    if (base == null) base = result;
+
+                    // Speedup and efficiency against the smallest amount of processors
+                    double time = total(result), baseTime = total(base);
+                    double efficiency = mode.equals("strong") ? baseTime * baseProcessors / (time * np) : baseTime / time;
+                    double speedup = mode.equals("strong") ? baseTime / time : efficiency * np / baseProcessors;
+                    Map<String, String> row = new LinkedHashMap<>();
+                    row.put("program", '"' + name + '"');
+                    row.put("scaling", '"' + mode + '"');
+                    row.put("np", String.valueOf(np));
+                    row.put("size", result.get("size"));
+                    row.put("total", String.format(Locale.ROOT, "%.6f", time));
+                    row.put("speedup", String.format(Locale.ROOT, "%.3f", speedup));
+                    row.put("efficiency", String.format(Locale.ROOT, "%.3f", efficiency));
+                    for (String phase : PhaseTimer.PHASES) {
+                        row.put(phase, result.get(phase));
+                        row.put(phase + "Bytes", result.get(phase + "Bytes"));
+                    }
+                    results.add(row);
+                    System.out.printf("%-20s %-6s np = %3d, size = %6s: total = %.4fs, speedup = %6.2f, efficiency = %5.2f%n",
+                            name, mode, np, result.get("size"), time, speedup, efficiency);
+                }
+            }
+        }
+        save(results, options.get("output"));
+    }
+
+    // Runs a program a few times and returns the fields of the report of the fastest run, null if it failed
+    private static Map<String, String> fastest(Workload workload, int np, int size, int repeats, String mpirun)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(Arrays.asList(mpirun.split(" ")));
+        command.addAll(List.of("-np", String.valueOf(np),
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-cp", System.getProperty("java.class.path"), workload.mainClass));
+        command.addAll(workload.arguments(size));
+
+        Map<String, String> best = null;
+        for (int run = 0; run < repeats; run++) {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            String report = null;
+            // Reading everything, so that the program doesn't block on a full pipe
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                for (String line; (line = reader.readLine()) != null; )
+                    if (line.startsWith("Phases: ")) report = line.substring("Phases: ".length());
+            }
+            int exitCode = process.waitFor();
+            if (exitCode != 0 || report == null) {
+                System.out.println(workload.name + " failed with np = " + np + " (exit code " + exitCode + ").");
+                return null;
+            }
+            Map<String, String> fields = new LinkedHashMap<>();
+            Matcher matcher = FIELD.matcher(report);
+            while (matcher.find()) fields.put(matcher.group(1), matcher.group(2));
+            if (best == null || total(fields) < total(best)) best = fields;
+        }
+        return best;
+    }
+
+    // The time of all phases except the output
+    private static double total(Map<String, String> fields) {
+        return Arrays.stream(PhaseTimer.PHASES).filter(phase -> !phase.equals(PhaseTimer.PHASES[PhaseTimer.OUTPUT]))
+                .mapToDouble(phase -> Double.parseDouble(fields.get(phase))).sum();
+    }
+
+    // Writing the rows as CSV and as a JSON array, the strings are already quoted
+    private static void save(List<Map<String, String>> results, String output) throws IOException {
+        if (results.isEmpty()) return;
+        try (PrintWriter csv = new PrintWriter(output + ".csv"); PrintWriter json = new PrintWriter(output + ".json")) {
+            csv.println(String.join(",", results.get(0).keySet()));
+            json.println('[');
+            for (int i = 0; i < results.size(); i++) {
+                csv.println(String.join(",", results.get(i).values()));
+                StringBuilder object = new StringBuilder("  {");
+                for (Map.Entry<String, String> field : results.get(i).entrySet())
+                    object.append(object.length() > 3 ? ", " : "").append('"').append(field.getKey()).append("\": ").append(field.getValue());
+                json.println(object.append((i < results.size() - 1) ? "}," : "}"));
+            }
+            json.println(']');
+        }
+        System.out.println("The results are saved to " + output + ".csv and " + output + ".json.");
+    }
+}